@@ -19,18 +19,23 @@ import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
 
+import com.orange.beaconme_sdk.ble.listeners.GATTCharacteristicListener;
 import com.orange.beaconme_sdk.ble.model.BeaconTagDevice;
 import com.orange.beaconme_sdk.ble.model.GATTOperation;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -52,6 +57,13 @@ public abstract class BLEDeviceGattController {
     protected Queue<GATTOperation> mOperations = new ConcurrentLinkedQueue<>();
     protected GATTOperation mCurrentOperation;
 
+    /**
+     * Listeners of subscribed characteristics, added by NOTIFY_START operations with
+     * a characteristic listener.
+     */
+    private final Map<UUID, GATTCharacteristicListener> notificationListeners =
+            new ConcurrentHashMap<>();
+
     protected boolean forceClosed = false;
 
     private Runnable reconnectRunnable = new Runnable() {
@@ -80,7 +92,17 @@ public abstract class BLEDeviceGattController {
 
     public void close() {
         Log.d(TAG, "Close GATT connection");
-        mOperations.clear();
+        synchronized (this) {
+            if (mCurrentOperation != null) {
+                mCurrentOperation.cancel();
+                mCurrentOperation = null;
+            }
+            GATTOperation op;
+            while ((op = mOperations.poll()) != null) {
+                op.cancel();
+            }
+            notificationListeners.clear();
+        }
         handler.removeCallbacks(reconnectRunnable);
 
         if (mGatt != null) {
@@ -96,60 +118,71 @@ public abstract class BLEDeviceGattController {
         }
     }
 
-    public void queue(final GATTOperation op) {
+    /**
+     * Queue operation. Operations are executed one at a time in order of queueing.
+     * @param op operation to execute
+     * @return future completed with GATT status of the operation
+     */
+    public synchronized Future<Integer> queue(final GATTOperation op) {
         mOperations.add(op);
         if (mCurrentOperation == null) {
             handleOperation();
         }
+        return op.getFuture();
     }
 
-    protected void handleOperation() {
-        GATTOperation op = mOperations.poll();
-
-        if (op == null)
-            return;
-
-        if (mCurrentOperation != null) {
-            Log.e(TAG, "Operation not null!");
-            return;
+    /**
+     * Start queued operations until one of them is in progress. Operations which can't be
+     * started are failed immediately.
+     */
+    protected synchronized void handleOperation() {
+        while (mCurrentOperation == null) {
+            GATTOperation op = mOperations.poll();
+            if (op == null) {
+                return;
+            }
+            if (mGatt == null || !startOperation(op)) {
+                mCurrentOperation = null;
+                Log.e(TAG, "Unable to start " + op.getType());
+                op.fail(op.getType() == GATTOperation.OperationType.REQUEST_MTU
+                        && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP
+                        ? BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED : BluetoothGatt.GATT_FAILURE);
+            }
         }
+    }
 
+    private boolean startOperation(GATTOperation op) {
         BluetoothGattCharacteristic c = op.getCharacteristic();
         BluetoothGattDescriptor d = op.getDescriptor();
+        mCurrentOperation = op;
 
         switch (op.getType()) {
             case READ_CHARACTERISTIC:
-                mCurrentOperation = op;
-                mGatt.readCharacteristic(c);
-                break;
+                return mGatt.readCharacteristic(c);
             case WRITE_CHARACTERISTIC:
-                mCurrentOperation = op;
-                mGatt.writeCharacteristic(c);
-                break;
+                return mGatt.writeCharacteristic(c);
             case READ_DESCRIPTOR:
-                mCurrentOperation = op;
-                mGatt.readDescriptor(d);
-                break;
+                return mGatt.readDescriptor(d);
             case WRITE_DESCRIPTOR:
-                mCurrentOperation = op;
-                mGatt.writeDescriptor(d);
-                break;
+                return mGatt.writeDescriptor(d);
             case NOTIFY_START:
+            case NOTIFY_END:
+                boolean enable = op.getType() == GATTOperation.OperationType.NOTIFY_START;
                 BluetoothGattDescriptor ntfDescriptor = c
                         .getDescriptor(CHARACTERISTIC_UPDATE_NOTIFICATION_DESCRIPTOR_UUID);
-                if (ntfDescriptor != null) {
-                    mGatt.setCharacteristicNotification(c, true);
-                    GATTOperation decsriptorWriteOp = new GATTOperation(
-                            GATTOperation.OperationType.WRITE_DESCRIPTOR, ntfDescriptor);
-                    queue(decsriptorWriteOp);
+                if (ntfDescriptor == null || !mGatt.setCharacteristicNotification(c, enable)) {
+                    return false;
                 }
-                break;
-            case NOTIFY_END:
-                break;
-        }
-
-        if (mCurrentOperation == null) {
-            processNextOperation();
+                ntfDescriptor.setValue(enable ? getEnableNotificationValue(c)
+                        : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                return mGatt.writeDescriptor(ntfDescriptor);
+            case REQUEST_MTU:
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        && mGatt.requestMtu(op.getMtu());
+            case READ_RSSI:
+                return mGatt.readRemoteRssi();
+            default:
+                return false;
         }
     }
 
@@ -159,11 +192,64 @@ public abstract class BLEDeviceGattController {
 
     protected void completeCurrentOperation(final int status,
                                             final BluetoothGattCharacteristic c) {
-        mCurrentOperation.complete(status, c);
-        mCurrentOperation = null;
+        GATTOperation op = takeCurrentOperation();
+        if (op != null) {
+            op.complete(status, c);
+        }
         processNextOperation();
     }
 
+    /**
+     * Complete current descriptor operation, including subscription changes, which are done
+     * by writing the notification descriptor.
+     */
+    protected void completeCurrentOperation(final int status, final BluetoothGattDescriptor d) {
+        GATTOperation op = takeCurrentOperation();
+        if (op != null) {
+            if (status == BluetoothGatt.GATT_SUCCESS && op.getCharacteristic() != null) {
+                UUID uuid = op.getCharacteristic().getUuid();
+                if (op.getType() == GATTOperation.OperationType.NOTIFY_START
+                        && op.getCharacteristicListener() != null) {
+                    notificationListeners.put(uuid, op.getCharacteristicListener());
+                } else if (op.getType() == GATTOperation.OperationType.NOTIFY_END) {
+                    notificationListeners.remove(uuid);
+                }
+            }
+            op.complete(status, d);
+        }
+        processNextOperation();
+    }
+
+    protected void completeCurrentMtuOperation(final int status, final int mtu) {
+        GATTOperation op = takeCurrentOperation();
+        if (op != null) {
+            op.completeMtu(status, mtu);
+        }
+        processNextOperation();
+    }
+
+    protected void completeCurrentRssiOperation(final int status, final int rssi) {
+        GATTOperation op = takeCurrentOperation();
+        if (op != null) {
+            op.completeRssi(status, rssi);
+        }
+        processNextOperation();
+    }
+
+    private synchronized GATTOperation takeCurrentOperation() {
+        GATTOperation op = mCurrentOperation;
+        mCurrentOperation = null;
+        return op;
+    }
+
+    private static byte[] getEnableNotificationValue(BluetoothGattCharacteristic c) {
+        if ((c.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0
+                && (c.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
+            return BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+        }
+        return BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+    }
+
     public GATTOperation getReadCharacteristicOperation(BluetoothGattCharacteristic c) {
         return new GATTOperation(
                 GATTOperation.OperationType.READ_CHARACTERISTIC, c);
@@ -173,6 +259,58 @@ public abstract class BLEDeviceGattController {
         return new GATTOperation(GATTOperation.OperationType.WRITE_CHARACTERISTIC, c);
     }
 
+    /**
+     * Callback which completes queued operations and dispatches notifications of subscribed
+     * characteristics. Subclasses overriding its methods should call super implementation after
+     * handling the result, since completion starts the next operation.
+     */
+    protected class OperationGattCallback extends BluetoothGattCallback {
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic, int status) {
+            completeCurrentOperation(status, characteristic);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic, int status) {
+            completeCurrentOperation(status, characteristic);
+        }
+
+        @Override
+        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                     int status) {
+            completeCurrentOperation(status, descriptor);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            completeCurrentOperation(status, descriptor);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            completeCurrentMtuOperation(status, mtu);
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            completeCurrentRssiOperation(status, rssi);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                                            BluetoothGattCharacteristic characteristic) {
+            GATTCharacteristicListener listener =
+                    notificationListeners.get(characteristic.getUuid());
+            if (listener != null) {
+                listener.changed(BluetoothGatt.GATT_SUCCESS, characteristic);
+            }
+        }
+    }
+
     protected BluetoothGatt getGatt() {
         return mGatt;
     }
@@ -15,15 +15,18 @@
 package com.orange.beaconme_sdk.ble.control;
 
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
 import android.os.Looper;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.orange.beaconme_sdk.ble.decoders.FrameDecoderRegistry;
+import com.orange.beaconme_sdk.ble.listeners.TelemetryListener;
 import com.orange.beaconme_sdk.ble.model.BeaconTagDevice;
 import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
 import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
@@ -31,12 +34,21 @@ import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
 import com.orange.beaconme_sdk.ble.utils.GattUtils;
 import com.orange.beaconme_sdk.control.BeaconMonitor;
 import com.orange.beaconme_sdk.control.model.BeaconSettings;
+import com.orange.beaconme_sdk.control.storage.ConfigurationJob;
+import com.orange.beaconme_sdk.control.storage.ConfigurationJobQueue;
+import com.orange.beaconme_sdk.control.storage.ConfigurationLedger;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -54,6 +66,14 @@ public class BLEDeviceManager {
     public static final String ACTION_DEVICE_CONNECTION_ABORT = "com.orange.beacon_sdk.DEVICE_CONNECTION_ABORT";
     public static final String FOOTPRING_TAG = "footprint_tag";
 
+    private static final String CONFIGURATION_LEDGER_FILE = "beacon_configuration_ledger.bin";
+    private static final String CONFIGURATION_JOBS_FILE = "beacon_configuration_jobs.bin";
+
+    private static final int DEFAULT_TELEMETRY_BATCH_SIZE = 20;
+    private static final long DEFAULT_TELEMETRY_BATCH_DELAY = 1000;
+    private static final long DEFAULT_DUPLICATE_WINDOW = 50;
+    private static final long TELEMETRY_RETRY_DELAY = 30 * 1000;
+
     private static BLEDeviceManager instance;
 
     private Context context;
@@ -62,17 +82,35 @@ public class BLEDeviceManager {
         @Override
         public void onReceive(Context context, Intent intent) {
             int bluetoothState = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, -1);
-            if (bluetoothState == BluetoothAdapter.STATE_ON) {
-                launchService();
+            if (bluetoothState == BluetoothAdapter.STATE_ON && scanRequested
+                    && scanScheduler.isContinuous(scanSchedule)) {
+                scanScheduler.start(scanSchedule);
             }
         }
     };
 
     private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
 
-    private Map<String, BeaconTagDevice> devices = new ConcurrentHashMap<>();
-    private Map<String, BLEDeviceGattController> deviceControllers = new ConcurrentHashMap<>();
-    private Map<DeviceFootprint, List<WriteCharacteristicCommand>> devicesConfigurations = new HashMap<>();
+    private volatile boolean scanRequested = false;
+    private volatile ScanSchedule scanSchedule = ScanSchedule.continuous();
+    private Set<String> detectionFilters;
+    private volatile Set<String> scanFilters;
+    private volatile long duplicateWindow = DEFAULT_DUPLICATE_WINDOW;
+    private final ScanScheduler scanScheduler;
+
+    private final ConfigurationLedger configurationLedger;
+    private final ConfigurationJobQueue configurationJobs;
+
+    private final FrameDecoderRegistry frameDecoders = FrameDecoderRegistry.createDefault();
+
+    /**
+     * Devices in configuration mode being updated, by device address. A record is added only
+     * with putIfAbsent and whoever removes it owns closing its controller and finishing its job.
+     */
+    private final ConcurrentMap<String, DeviceRecord> deviceRecords = new ConcurrentHashMap<>();
+    private final Map<DeviceFootprint, TelemetryRequest> telemetryRequests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<DeviceFootprint, TelemetrySession> telemetrySessions =
+            new ConcurrentHashMap<>();
 
     public static BLEDeviceManager getInstance() {
         return instance;
@@ -88,11 +126,26 @@ public class BLEDeviceManager {
 
     private BLEDeviceManager(Context context) {
         this.context = context.getApplicationContext();
-        launchService();
+        scanScheduler = new ScanScheduler(this.context);
+        configurationLedger = new ConfigurationLedger(new File(context.getFilesDir(),
+                CONFIGURATION_LEDGER_FILE));
+        configurationLedger.load();
+        configurationJobs = new ConfigurationJobQueue(new File(context.getFilesDir(),
+                CONFIGURATION_JOBS_FILE), configurationLedger);
+        configurationJobs.load();
         context.registerReceiver(bluetoothBroadcastReceiver,
                 new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
     }
 
+    /**
+     * Decoders used by BLEDeviceScanner to recognize beacon frames. Custom decoders can be
+     * registered to detect other frame formats.
+     * @return frame decoder registry
+     */
+    public FrameDecoderRegistry getFrameDecoders() {
+        return frameDecoders;
+    }
+
     /**
      * Method invoked when device in cofiguration mode was detected with
      * BLEDeviceScanner.UUID_SERVICE_UUID in a list of services
@@ -101,19 +154,98 @@ public class BLEDeviceManager {
      * @param detection corresponding detection object with detection information
      */
     public void onDeviceFound(String address, final BeaconTagDevice device, IBeaconDetect detection) {
-        if (!devices.containsKey(address) && devicesConfigurations.containsKey(detection.getFootprint())) {
-            final BLEDeviceGattController controller = new BeaconTagDeviceUpdater(device, context,
-                    devicesConfigurations.get(detection.getFootprint()));
-            Log.d(TAG, "found device " + address);
-            mainThreadHandler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    controller.connect();
+        if (deviceRecords.containsKey(address)) {
+            return;
+        }
+        ConfigurationJob job = configurationJobs.claim(detection.getFootprint());
+        if (job == null) {
+            return;
+        }
+        List<WriteCharacteristicCommand> commands = configurationLedger.diff(
+                detection.getFootprint(), job.getCommands());
+        final DeviceRecord record = new DeviceRecord(device,
+                new BeaconTagDeviceUpdater(device, context, commands), job);
+        if (deviceRecords.putIfAbsent(address, record) != null) {
+            configurationJobs.release(job);
+            return;
+        }
+        Log.d(TAG, "found device " + address);
+        final String deviceAddress = address;
+        mainThreadHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (deviceRecords.get(deviceAddress) == record) {
+                    record.controller.connect();
                 }
-            }, 100);
-            deviceControllers.put(address, controller);
-            devices.put(address, device);
+            }
+        }, 100);
+    }
+
+    /**
+     * Method invoked when device was updated with given commands.
+     * @param device updated device
+     * @param commands commands applied to the device
+     */
+    public void onDeviceUpdated(BeaconTagDevice device, List<WriteCharacteristicCommand> commands) {
+        configurationLedger.recordApplied(device.getFootprint(), commands);
+        DeviceRecord record = deviceRecords.get(device.getBleDevice().getAddress());
+        ConfigurationJob job = record != null ? record.takeJob() : null;
+        if (job != null) {
+            configurationJobs.complete(job);
+        }
+    }
+
+    /**
+     * Method invoked when device can't be updated, e.g. it doesn't have required services.
+     * Device is removed from configuration cache, so the update is retried on the next
+     * detection of the device in configuration mode until its job fails.
+     * @param device device which failed to update
+     */
+    public void onDeviceUpdateFailed(BeaconTagDevice device) {
+        onDeviceUpdateFailed(device, Collections.<WriteCharacteristicCommand>emptyList());
+    }
+
+    /**
+     * Method invoked when only some of the commands were applied to the device. The job fails
+     * and its retry sends just the commands which were not applied.
+     * @param device device which failed to update
+     * @param commands commands applied to the device
+     */
+    public void onDeviceUpdateFailed(BeaconTagDevice device,
+                                     List<WriteCharacteristicCommand> commands) {
+        if (!commands.isEmpty()) {
+            configurationLedger.recordApplied(device.getFootprint(), commands);
         }
+        String address = device.getBleDevice().getAddress();
+        DeviceRecord record = deviceRecords.get(address);
+        if (record == null) {
+            return;
+        }
+        deviceRecords.remove(address, record);
+        record.controller.forceClose();
+        ConfigurationJob job = record.takeJob();
+        if (job != null) {
+            configurationJobs.fail(job);
+        }
+    }
+
+    /**
+     * Configuration jobs of registered devices, which survive restarts of the application.
+     * Can be used to follow progress of provisioning and retry failed devices.
+     * @return configuration job queue
+     */
+    public ConfigurationJobQueue getConfigurationJobs() {
+        return configurationJobs;
+    }
+
+    /**
+     * Configuration applied to devices. Devices are updated only with commands which differ
+     * from the applied configuration. Forget configuration of a device which was reconfigured
+     * by other means to have it fully updated again.
+     * @return configuration ledger
+     */
+    public ConfigurationLedger getConfigurationLedger() {
+        return configurationLedger;
     }
 
     /**
@@ -123,11 +255,17 @@ public class BLEDeviceManager {
      * @return device information if device was removed, null else
      */
     public BeaconTagDevice removeDeviceFromConfigurationCache(String address) {
-        if (devices.containsKey(address)) {
-            deviceControllers.remove(address).forceClose();
-            return devices.remove(address);
+        DeviceRecord record = deviceRecords.remove(address);
+        if (record == null) {
+            return null;
         }
-        return null;
+        record.controller.forceClose();
+        ConfigurationJob job = record.takeJob();
+        if (job != null) {
+            // Device left configuration mode before it was updated
+            configurationJobs.fail(job);
+        }
+        return record.device;
     }
 
     /**
@@ -135,9 +273,16 @@ public class BLEDeviceManager {
      * Indicates that scanner is going to stop.
      */
     public void clear() {
-        for (String key : devices.keySet()) {
-            deviceControllers.remove(key).forceClose();
-            devices.remove(key);
+        for (String address : deviceRecords.keySet()) {
+            DeviceRecord record = deviceRecords.remove(address);
+            if (record == null) {
+                continue;
+            }
+            record.controller.forceClose();
+            ConfigurationJob job = record.takeJob();
+            if (job != null) {
+                configurationJobs.release(job);
+            }
         }
     }
 
@@ -150,13 +295,156 @@ public class BLEDeviceManager {
         BeaconMonitor.getInstance().onDetect(detection);
     }
 
+    /**
+     * Method invoked for every detection with the device it was received from. Opens telemetry
+     * session if telemetry of the device was requested.
+     * @param device device the detection was received from
+     * @param detection information about detection
+     */
+    public void onBeaconSeen(BluetoothDevice device, IBeaconDetect detection) {
+        if (telemetryRequests.isEmpty()) {
+            return;
+        }
+        DeviceFootprint footprint = detection.getFootprint();
+        TelemetryRequest request = telemetryRequests.get(footprint);
+        if (request == null || telemetrySessions.containsKey(footprint)
+                || SystemClock.elapsedRealtime() < request.retryAt) {
+            return;
+        }
+        final TelemetrySession session = new TelemetrySession(
+                new BeaconTagDevice(device, footprint), context, request.listener,
+                request.batchSize, request.maxBatchDelay);
+        if (telemetrySessions.putIfAbsent(footprint, session) == null) {
+            Log.d(TAG, "start telemetry of " + device.getAddress());
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    session.connect();
+                }
+            });
+        }
+    }
+
+    /**
+     * Collect sensor samples of the device. Session is opened once the device is detected and
+     * kept until stopTelemetry is called. Samples are delivered in batches of up to 20 samples,
+     * at least once a second.
+     * @param footprint footprint of the device
+     * @param listener receives samples on the main thread
+     */
+    public void startTelemetry(DeviceFootprint footprint, TelemetryListener listener) {
+        startTelemetry(footprint, listener, DEFAULT_TELEMETRY_BATCH_SIZE,
+                DEFAULT_TELEMETRY_BATCH_DELAY);
+    }
+
+    /**
+     * Collect sensor samples of the device. Session is opened once the device is detected and
+     * kept until stopTelemetry is called.
+     * @param footprint footprint of the device
+     * @param listener receives samples on the main thread
+     * @param batchSize number of samples after which batch is delivered
+     * @param maxBatchDelay max time in milliseconds a sample waits before batch is delivered
+     */
+    public void startTelemetry(DeviceFootprint footprint, TelemetryListener listener,
+                               int batchSize, long maxBatchDelay) {
+        stopTelemetry(footprint);
+        telemetryRequests.put(footprint, new TelemetryRequest(listener, batchSize, maxBatchDelay));
+        updateScanFilters();
+    }
+
+    /**
+     * Close telemetry session of the device. Pending samples are delivered before closing.
+     * @param footprint footprint of the device
+     */
+    public void stopTelemetry(DeviceFootprint footprint) {
+        if (telemetryRequests.remove(footprint) != null) {
+            updateScanFilters();
+        }
+        final TelemetrySession session = telemetrySessions.remove(footprint);
+        if (session != null) {
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    session.stop();
+                }
+            });
+        }
+    }
+
+    /**
+     * Invoked when a telemetry session closed itself because the device can't provide samples.
+     * Session is dropped, a new one is opened once the device is detected after a delay.
+     * @param footprint footprint of the device
+     * @param session closed session
+     */
+    void onTelemetrySessionClosed(DeviceFootprint footprint, TelemetrySession session) {
+        if (telemetrySessions.remove(footprint, session)) {
+            TelemetryRequest request = telemetryRequests.get(footprint);
+            if (request != null) {
+                request.retryAt = SystemClock.elapsedRealtime() + TELEMETRY_RETRY_DELAY;
+            }
+        }
+    }
+
     /**
      * Add device for detection. When such a device will be detected in configuration mode it will
      * be updated accodring to settings
      * @param settings settings for device to be updated with.
      */
     public void addDeviceForDetection(BeaconSettings settings) {
-        devicesConfigurations.put(settings.getDeviceFootprint(), GattUtils.beaconSettingsToCommands(settings));
+        addDeviceForDetection(settings.getDeviceFootprint(), GattUtils.beaconSettingsToCommands(settings));
+    }
+
+    /**
+     * Add device for detection with already computed configuration commands. When such a device
+     * will be detected in configuration mode it will be updated with given commands. Regions
+     * are ignored, since they don't stand for a device to configure.
+     * @param footprint footprint of the device
+     * @param commands commands to update device with
+     */
+    public void addDeviceForDetection(DeviceFootprint footprint, List<WriteCharacteristicCommand> commands) {
+        if (!footprint.isWildcard()) {
+            configurationJobs.enqueue(footprint, commands);
+        }
+    }
+
+    /**
+     * Add several devices for detection at once.
+     * @param configurations commands to update devices with, by device footprint
+     */
+    public void addDevicesForDetection(Map<DeviceFootprint, List<WriteCharacteristicCommand>> configurations) {
+        configurationJobs.enqueueAll(withoutRegions(configurations), false);
+    }
+
+    /**
+     * Replace all devices for detection with given ones. Devices which are not in the given
+     * configurations will no longer be updated.
+     * @param configurations commands to update devices with, by device footprint
+     */
+    public void setDevicesForDetection(Map<DeviceFootprint, List<WriteCharacteristicCommand>> configurations) {
+        configurations = withoutRegions(configurations);
+        Set<DeviceFootprint> removed = new HashSet<>();
+        for (ConfigurationJob job : configurationJobs.getJobs()) {
+            if (!configurations.containsKey(job.getFootprint())) {
+                removed.add(job.getFootprint());
+            }
+        }
+        configurationJobs.enqueueAll(configurations, true);
+        cancelDeviceUpdates(removed);
+    }
+
+    private static Map<DeviceFootprint, List<WriteCharacteristicCommand>> withoutRegions(
+            Map<DeviceFootprint, List<WriteCharacteristicCommand>> configurations) {
+        Map<DeviceFootprint, List<WriteCharacteristicCommand>> devices = null;
+        for (DeviceFootprint footprint : configurations.keySet()) {
+            if (footprint.isWildcard()) {
+                if (devices == null) {
+                    devices = new HashMap<>(configurations);
+                }
+                devices.remove(footprint);
+            }
+        }
+        return devices != null ? devices : configurations;
     }
 
     /**
@@ -164,13 +452,160 @@ public class BLEDeviceManager {
      * @param footprint footprint of the device
      */
     public void removeDeviceForDetection(DeviceFootprint footprint) {
-        devicesConfigurations.remove(footprint);
+        configurationJobs.removeAll(Collections.singleton(footprint));
+        cancelDeviceUpdates(Collections.singleton(footprint));
+    }
+
+    /**
+     * Remove several devices from detection at once.
+     * @param footprints footprints of the devices
+     */
+    public void removeDevicesForDetection(Collection<DeviceFootprint> footprints) {
+        configurationJobs.removeAll(footprints);
+        cancelDeviceUpdates(new HashSet<>(footprints));
+    }
+
+    /**
+     * Stop updating of devices with given footprints, if they are being updated.
+     * @param footprints footprints of the devices
+     */
+    private void cancelDeviceUpdates(Set<DeviceFootprint> footprints) {
+        for (Map.Entry<String, DeviceRecord> entry : deviceRecords.entrySet()) {
+            if (footprints.contains(entry.getValue().device.getFootprint())) {
+                removeDeviceFromConfigurationCache(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Start scanning according to the scan schedule. Continuous scanning will be restarted each
+     * time Bluetooth is turned on, until stopScanner is called.
+     */
+    public synchronized void startScanner() {
+        scanRequested = true;
+        scanScheduler.start(scanSchedule);
+    }
+
+    /**
+     * Stop scanning and all device updating.
+     */
+    public synchronized void stopScanner() {
+        scanRequested = false;
+        scanScheduler.stop(scanSchedule);
     }
 
     /**
-     * Starts BLEDeviceScanner Service
+     * Set how scanning is run. If scanner is running, it is restarted with the new schedule.
+     * @param schedule scan schedule, continuous scanning in a started service by default
      */
-    private void launchService() {
-        context.startService(new Intent(context, BLEDeviceScanner.class));
+    public synchronized void setScanSchedule(ScanSchedule schedule) {
+        ScanSchedule previous = scanSchedule;
+        scanSchedule = schedule;
+        if (scanRequested && !scanScheduler.update(previous, schedule)) {
+            scanScheduler.stop(previous);
+            scanScheduler.start(schedule);
+        }
+    }
+
+    public ScanSchedule getScanSchedule() {
+        return scanSchedule;
+    }
+
+    /**
+     * Pass to the detection pipeline only beacons with given uuids. Beacons with requested
+     * telemetry are always passed.
+     * @param uuids uuids of beacons to detect, null to detect all beacons
+     */
+    public synchronized void setScanFilters(Set<String> uuids) {
+        if (uuids == null) {
+            detectionFilters = null;
+        } else {
+            Set<String> filters = new HashSet<>();
+            for (String uuid : uuids) {
+                filters.add(uuid.toLowerCase());
+            }
+            detectionFilters = filters;
+        }
+        updateScanFilters();
+    }
+
+    /**
+     * @return uuids of beacons passed to the detection pipeline, null if all beacons are passed
+     */
+    public Set<String> getScanFilters() {
+        return scanFilters;
+    }
+
+    /**
+     * Set time window in which identical packets of a device are reported only once. Some
+     * Bluetooth stacks deliver the same advertisement several times within milliseconds.
+     * @param window window in milliseconds, 0 passes all packets. Negative value will be ignored
+     */
+    public void setDuplicateWindow(long window) {
+        if (window >= 0) {
+            duplicateWindow = window;
+        }
+    }
+
+    public long getDuplicateWindow() {
+        return duplicateWindow;
+    }
+
+    /**
+     * @return counters of the running scanner, null if the scanner is not running continuously
+     */
+    public synchronized ScanStats getScanStats() {
+        return scanScheduler.getStats();
+    }
+
+    private synchronized void updateScanFilters() {
+        Set<String> filters = detectionFilters;
+        if (filters != null && !telemetryRequests.isEmpty()) {
+            filters = new HashSet<>(filters);
+            for (DeviceFootprint footprint : telemetryRequests.keySet()) {
+                filters.add(footprint.getUuid().toLowerCase());
+            }
+        }
+        scanFilters = filters != null ? Collections.unmodifiableSet(filters) : null;
+        scanScheduler.setFilters(scanFilters);
+    }
+
+    /**
+     * Device being updated with its controller and the job it claimed.
+     */
+    private static class DeviceRecord {
+        final BeaconTagDevice device;
+        final BLEDeviceGattController controller;
+        private final AtomicReference<ConfigurationJob> job;
+
+        DeviceRecord(BeaconTagDevice device, BLEDeviceGattController controller,
+                     ConfigurationJob job) {
+            this.device = device;
+            this.controller = controller;
+            this.job = new AtomicReference<>(job);
+        }
+
+        /**
+         * @return claimed job if it was not finished yet, so the job is finished only once
+         */
+        ConfigurationJob takeJob() {
+            return job.getAndSet(null);
+        }
+    }
+
+    private static class TelemetryRequest {
+        final TelemetryListener listener;
+        final int batchSize;
+        final long maxBatchDelay;
+        /**
+         * Time in SystemClock.elapsedRealtime() milliseconds before which no session is opened.
+         */
+        volatile long retryAt;
+
+        TelemetryRequest(TelemetryListener listener, int batchSize, long maxBatchDelay) {
+            this.listener = listener;
+            this.batchSize = batchSize;
+            this.maxBatchDelay = maxBatchDelay;
+        }
     }
 }
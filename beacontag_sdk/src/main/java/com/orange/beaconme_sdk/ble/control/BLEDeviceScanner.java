@@ -15,190 +15,153 @@
 package com.orange.beaconme_sdk.ble.control;
 
 import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
-import android.os.ParcelUuid;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.Looper;
 import android.util.Log;
 
-
-import com.orange.beaconme_sdk.ble.model.BeaconTagDevice;
-import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
-import com.orange.beaconme_sdk.ble.model.ScanRecord;
-import com.orange.beaconme_sdk.ble.utils.ByteArrayUtils;
-
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 
 /**
- *
+ * Service running LE scan. Scans from start until stopped, or for a window given in
+ * EXTRA_SCAN_WINDOW when started by a duty cycle alarm. Scanning is controlled through
+ * ScannerControl returned by the service binder.
  */
 public class BLEDeviceScanner extends Service {
 
     private final String TAG = this.getClass().getSimpleName();
 
-    private static final ParcelUuid UUID_SERVICE_UUID = new ParcelUuid(BeaconTagDevice.UUID_SERVICE_UUID);
+    /**
+     * @deprecated scanner is controlled through {@link ScannerControl}
+     */
+    @Deprecated
     public static String START_SCAN_SERVICE_ACTION = "com.orange.beaconconnect.START_SCAN_SERVICE_ACTION";
+    /**
+     * @deprecated scanner is controlled through {@link ScannerControl}
+     */
+    @Deprecated
     public static String STOP_SCAN_SERVICE_ACTION = "com.orange.beaconconnect.STOP_SCAN_SERVICE_ACTION";
 
-    private BluetoothAdapter mAdapter;
-
-    private BroadcastReceiver receiver = new BroadcastReceiver() {
+    /**
+     * Duration of the scan in milliseconds, service stops itself once it elapses.
+     */
+    public static final String EXTRA_SCAN_WINDOW = "com.orange.beaconme_sdk.extra.SCAN_WINDOW";
+
+    /**
+     * Changed on the main thread only, volatile for getStats called from other threads.
+     */
+    private volatile ScanSession session;
+    private boolean foreground;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable stopRunnable = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            stopSelf();
+        public void run() {
+            control.stopScan();
         }
-
     };
 
-    private IntentFilter intentFilter;
-
-    public BLEDeviceScanner() {
-        intentFilter = new IntentFilter(STOP_SCAN_SERVICE_ACTION);
-    }
-
-    @Override
-    public IBinder onBind(Intent intent) {
-        return null;
-    }
-
-    @Override
-    public void onCreate() {
-        Log.d(TAG, "onCreate");
-        super.onCreate();
-        final BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-        mAdapter = bluetoothManager.getAdapter();
-
-        if (mAdapter != null && mAdapter.isEnabled()) {
-            startScanning();
-            LocalBroadcastManager.getInstance(getApplicationContext())
-                    .registerReceiver(receiver, intentFilter);
-        } else {
-            stopSelf();
-        }
-    }
-
-
-    @Override
-    public void onDestroy() {
-        Log.d(TAG, "onDestroy");
-        super.onDestroy();
-        stopScanning();
-        stopReScanTimer();
-        mReScanTimer.cancel();
-    }
-
-    BluetoothAdapter.LeScanCallback mScanCallback = new BluetoothAdapter.LeScanCallback() {
-
+    private final ScannerControl control = new ScannerControl() {
         @Override
-        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
-            ScanRecord sr = ScanRecord.parseFromBytes(scanRecord);
-            Log.d("SCAN RECORD", sr.toString());
-            boolean isInConnectionState = sr.getServiceUuids() != null && sr.getServiceUuids()
-                    .contains(UUID_SERVICE_UUID);
-            if (!isInConnectionState) {
-                getDeviceManager().removeDeviceFromConfigurationCache(device.getAddress());
+        public void startScan() {
+            if (session != null) {
+                return;
             }
-
-            IBeaconDetect detection = isBeaconScan(rssi, scanRecord);
-            if (detection != null) {
-                getDeviceManager().onDetect(detection);
+            BLEDeviceManager manager = BLEDeviceManager.getInstance();
+            session = new ScanSession(BLEDeviceScanner.this);
+            if (manager != null) {
+                session.setFilters(manager.getScanFilters());
             }
-
-            if (isInConnectionState) {
-                getDeviceManager().onDeviceFound(device.getAddress(),
-                        new BeaconTagDevice(device, detection.getFootprint()), detection);
+            if (manager == null || !session.start()) {
+                Log.d(TAG, "Unable to start scan");
+                session = null;
+                stopSelf();
             }
         }
-    };
 
-    private boolean startScanning() {
-        if (mAdapter.startLeScan(mScanCallback)) {
-            startReScanTimer();
-            return true;
+        @Override
+        public void stopScan() {
+            handler.removeCallbacks(stopRunnable);
+            if (session != null) {
+                session.stop();
+                session = null;
+            }
+            setForeground(null);
+            stopSelf();
         }
-        return false;
-    }
 
-    private void stopScanning() {
-        stopReScanTimer();
-        BluetoothAdapter bluetoothAdapter = ((BluetoothManager)
-                getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
-        if (bluetoothAdapter != null) {
-            try {
-                bluetoothAdapter.stopLeScan(mScanCallback);
-            } catch (NullPointerException ex) {
-                //prevent OBGM-215 issue. For proper fix more information needed
+        @Override
+        public void setFilters(Set<String> uuids) {
+            if (session != null) {
+                session.setFilters(uuids);
             }
         }
-        getDeviceManager().clear();
-    }
-
-
-    private Timer mReScanTimer = new Timer();
-    private TimerTask mReScanTimerTask;
-
-    private void startReScanTimer() {
 
-        mReScanTimerTask = new TimerTask() {
+        @Override
+        public void setSchedule(ScanSchedule schedule) {
+            setForeground(schedule.getMode() == ScanSchedule.Mode.FOREGROUND_SERVICE
+                    ? schedule : null);
+        }
 
-            @Override
-            public void run() {
-                if (mAdapter != null) {
-                    try {
-                        mAdapter.stopLeScan(mScanCallback);
-                    } catch (NullPointerException ex) {
-                        //prevent bug on Samsung devices : mAdapter is not null but raise NPE on stop method
-                    }
-                    mAdapter.startLeScan(mScanCallback);
-                }
-            }
+        @Override
+        public ScanStats getStats() {
+            ScanSession session = BLEDeviceScanner.this.session;
+            return session != null ? session.getStats() : new ScanStats(false, 0, 0, 0, 0, 0);
+        }
+    };
 
-        };
-        mReScanTimer.schedule(mReScanTimerTask, 0L, 2000L);
+    /**
+     * Binder of a local BLEDeviceScanner.
+     */
+    public class ScannerBinder extends Binder {
+        public ScannerControl getControl() {
+            return control;
+        }
     }
 
-    private void stopReScanTimer() {
-        if (mReScanTimerTask != null)
-            mReScanTimerTask.cancel();
-        mReScanTimer.purge();
-    }
+    private final IBinder binder = new ScannerBinder();
 
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
 
-    private IBeaconDetect isBeaconScan(int rssi, byte[] scanRecord) {
-        int startByte = 2;
-        boolean patternFound = false;
-        while (startByte <= 5) {
-            if (((int) scanRecord[startByte + 2] & 0xff) == 0x02 && //Identifies an iBeacon
-                    ((int) scanRecord[startByte + 3] & 0xff) == 0x15) { //Identifies correct data length
-                patternFound = true;
-                break;
-            }
-            startByte++;
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        control.startScan();
+        if (session == null) {
+            return START_NOT_STICKY;
         }
-
-        if (patternFound) {
-            byte[] uuidBytes = new byte[16];
-            System.arraycopy(scanRecord, startByte + 4, uuidBytes, 0, 16);
-            String uuid = ByteArrayUtils.bytesToUUID(uuidBytes);
-            int major = (scanRecord[startByte + 20] & 0xff) * 0x100 + (scanRecord[startByte + 21] & 0xff);
-            int minor = (scanRecord[startByte + 22] & 0xff) * 0x100 + (scanRecord[startByte + 23] & 0xff);
-            int txPower = scanRecord[startByte + 24];
-            IBeaconDetect detection = new IBeaconDetect(uuid, major, minor, rssi, txPower);
-            Log.d("RANGE", detection.getRange() + " range for distance of " + detection.getDistance() + "m to " + uuid);
-            return detection;
+        long scanWindow = intent != null ? intent.getLongExtra(EXTRA_SCAN_WINDOW, 0) : 0;
+        if (scanWindow > 0) {
+            handler.removeCallbacks(stopRunnable);
+            handler.postDelayed(stopRunnable, scanWindow);
+            return START_NOT_STICKY;
         }
-        return null;
+        control.setSchedule(BLEDeviceManager.getInstance().getScanSchedule());
+        return START_STICKY;
     }
 
-    private BLEDeviceManager getDeviceManager() {
-        return BLEDeviceManager.getInstance();
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "onDestroy");
+        super.onDestroy();
+        handler.removeCallbacks(stopRunnable);
+        if (session != null) {
+            session.stop();
+            session = null;
+        }
+        setForeground(null);
     }
 
+    private void setForeground(ScanSchedule schedule) {
+        if (schedule != null && !foreground) {
+            startForeground(schedule.getNotificationId(), schedule.getNotification());
+            foreground = true;
+        } else if (schedule == null && foreground) {
+            stopForeground(true);
+            foreground = false;
+        }
+    }
 }
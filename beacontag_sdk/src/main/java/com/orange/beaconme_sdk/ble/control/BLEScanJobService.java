@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Job scanning for the window of the current ScanSchedule. Scheduled by ScanScheduler in
+ * PERIODIC_JOB mode.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class BLEScanJobService extends JobService {
+
+    private final String TAG = this.getClass().getSimpleName();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private ScanSession session;
+    private Runnable finishRunnable;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        BLEDeviceManager manager = BLEDeviceManager.getInstance();
+        if (manager == null) {
+            Log.d(TAG, "BLEDeviceManager is not initialized, skip scan");
+            return false;
+        }
+        session = new ScanSession(getApplicationContext());
+        session.setFilters(manager.getScanFilters());
+        if (!session.start()) {
+            session = null;
+            return false;
+        }
+        finishRunnable = new Runnable() {
+            @Override
+            public void run() {
+                stopSession();
+                jobFinished(params, false);
+            }
+        };
+        handler.postDelayed(finishRunnable, manager.getScanSchedule().getScanWindow());
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        handler.removeCallbacks(finishRunnable);
+        stopSession();
+        return false;
+    }
+
+    private void stopSession() {
+        if (session != null) {
+            session.stop();
+            session = null;
+        }
+    }
+}
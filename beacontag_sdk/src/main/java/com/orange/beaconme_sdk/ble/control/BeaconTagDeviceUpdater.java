@@ -28,6 +28,7 @@ import android.util.Log;
 import com.orange.beaconme_sdk.ble.model.BeaconTagDevice;
 import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -53,6 +54,8 @@ public class BeaconTagDeviceUpdater extends BLEDeviceGattController {
     private Map<UUID, Boolean> uploadingCompletion;
 
     private List<WriteCharacteristicCommand> commands;
+    private List<WriteCharacteristicCommand> appliedCommands;
+    private boolean uploadingFailed;
     boolean allowSkipAdvancedService;
 
     public BeaconTagDeviceUpdater(BeaconTagDevice device, Context context,
@@ -68,6 +71,7 @@ public class BeaconTagDeviceUpdater extends BLEDeviceGattController {
         this.commands = commands;
         this.allowSkipAdvancedService = allowSkipAdvancedService;
         uploadingCompletion = new HashMap<>();
+        appliedCommands = new ArrayList<>();
         for (WriteCharacteristicCommand command : commands) {
             uploadingCompletion.put(command.getCharacteristicUUID(), false);
         }
@@ -86,15 +90,16 @@ public class BeaconTagDeviceUpdater extends BLEDeviceGattController {
             if (service != null) {
                 BluetoothGattCharacteristic c = service.getCharacteristic(command.getCharacteristicUUID());
                 if (c == null) {
-                    doneUploadingUuid(characteristicUUID);
+                    Log.e(TAG, "Characteristic not found " + characteristicUUID);
+                    failedUploadingUuid(characteristicUUID);
                 } else {
                     queue(getReadCharacteristicOperation(c));
                 }
             } else if (command.getServiceUUID()
                     .equals(BeaconTagDevice.WAKE_UP_SERVICE_UUID) && allowSkipAdvancedService) {
-                doneUploadingUuid(characteristicUUID);
+                skippedUploadingUuid(characteristicUUID);
             } else {
-                close();
+                onFailed();
                 return;
             }
         }
@@ -147,34 +152,82 @@ public class BeaconTagDeviceUpdater extends BLEDeviceGattController {
                 return;
             }
         }
-        onComplete();
+        if (uploadingFailed) {
+            onFailed();
+        } else {
+            onComplete();
+        }
     }
 
 
     private void onComplete() {
         Log.i("Updater", "onComplete");
         close();
+        BLEDeviceManager manager = BLEDeviceManager.getInstance();
+        if (manager != null) {
+            manager.onDeviceUpdated(getDevice(), appliedCommands);
+        }
         Intent intent = new Intent(BLEDeviceManager.ACTION_DEVICE_UPDATED);
         intent.putExtra(BLEDeviceManager.FOOTPRING_TAG, getDevice().getFootprint());
         LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
 
     }
 
+    /**
+     * Commands which were applied are still recorded, so only the failed ones are sent on retry.
+     */
+    private void onFailed() {
+        Log.i("Updater", "onFailed");
+        close();
+        BLEDeviceManager manager = BLEDeviceManager.getInstance();
+        if (manager != null) {
+            manager.onDeviceUpdateFailed(getDevice(), appliedCommands);
+        }
+    }
+
+    /**
+     * Characteristic has the value of its command, either written or already present.
+     */
     private void doneUploadingUuid(UUID uuid) {
+        if (uploadingCompletion.containsKey(uuid) && !uploadingCompletion.get(uuid)) {
+            for (WriteCharacteristicCommand command : commands) {
+                if (command.getCharacteristicUUID().equals(uuid)) {
+                    appliedCommands.add(command);
+                }
+            }
+        }
+        skippedUploadingUuid(uuid);
+    }
+
+    /**
+     * Characteristic is not updated but the update can complete without it.
+     */
+    private void skippedUploadingUuid(UUID uuid) {
         if (uploadingCompletion.containsKey(uuid)) {
             uploadingCompletion.put(uuid, true);
         }
         checkIfUploadingComplete();
     }
 
-    class BeaconUpdateGattCallback extends BluetoothGattCallback {
+    private void failedUploadingUuid(UUID uuid) {
+        uploadingFailed = true;
+        skippedUploadingUuid(uuid);
+    }
+
+    class BeaconUpdateGattCallback extends OperationGattCallback {
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt,
                                           BluetoothGattCharacteristic characteristic, int status) {
             logOnWrittenCharacteristic(characteristic);
-            doneUploadingUuid(characteristic.getUuid());
-            completeCurrentOperation(status, characteristic);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                doneUploadingUuid(characteristic.getUuid());
+            } else {
+                Log.e(TAG, String.format("write characteristic %s failed, status=%d",
+                        characteristic.getUuid(), status));
+                failedUploadingUuid(characteristic.getUuid());
+            }
+            super.onCharacteristicWrite(gatt, characteristic, status);
         }
 
         public void onCharacteristicRead(BluetoothGatt gatt,
@@ -184,7 +237,7 @@ public class BeaconTagDeviceUpdater extends BLEDeviceGattController {
                 reconnect();
             }
             onReadCharacteristic(characteristic, gatt, status);
-            completeCurrentOperation(status, characteristic);
+            super.onCharacteristicRead(gatt, characteristic, status);
         }
 
         public void onConnectionStateChange(BluetoothGatt gatt, int status,
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size cache of recently received packets, keyed by device address and payload hash.
+ * Some Bluetooth stacks report the same advertisement several times within milliseconds, such
+ * packets are dropped before decoding. Slots are replaced without locking, so a colliding packet
+ * may evict another one and let its next duplicate through, which only costs a decode.
+ */
+class DuplicateFilter {
+
+    private static final int SIZE = 256;
+
+    private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(SIZE);
+    private final AtomicLong duplicatesDropped = new AtomicLong();
+
+    /**
+     * Check the packet and remember it if it is not a duplicate. The window is not extended by
+     * duplicates, so a device repeating the same payload passes at least once per window.
+     * @param address physical address of the device
+     * @param scanRecord raw scan record
+     * @param now current time in milliseconds
+     * @param window time in milliseconds identical packets are dropped for, 0 disables filtering
+     * @return true if the packet should be dropped
+     */
+    boolean isDuplicate(String address, byte[] scanRecord, long now, long window) {
+        if (window <= 0) {
+            return false;
+        }
+        int payloadHash = Arrays.hashCode(scanRecord);
+        int hash = address.hashCode() * 31 + payloadHash;
+        int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+        Entry entry = entries.get(slot);
+        if (entry != null && now - entry.time < window && entry.payloadHash == payloadHash
+                && entry.address.equals(address)) {
+            duplicatesDropped.incrementAndGet();
+            return true;
+        }
+        entries.set(slot, new Entry(address, payloadHash, now));
+        return false;
+    }
+
+    long getDuplicatesDropped() {
+        return duplicatesDropped.get();
+    }
+
+    void clear() {
+        for (int i = 0; i < SIZE; i++) {
+            entries.set(i, null);
+        }
+    }
+
+    private static class Entry {
+        final String address;
+        final int payloadHash;
+        final long time;
+
+        Entry(String address, int payloadHash, long time) {
+            this.address = address;
+            this.payloadHash = payloadHash;
+            this.time = time;
+        }
+    }
+}
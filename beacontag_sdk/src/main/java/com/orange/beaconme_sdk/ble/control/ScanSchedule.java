@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+import android.app.Notification;
+
+/**
+ * Defines how scanning is run while beacons are registered.
+ */
+public class ScanSchedule {
+
+    public enum Mode {
+        /**
+         * Started service scanning all the time. May be killed by the system when application
+         * is in background.
+         */
+        CONTINUOUS,
+        /**
+         * Foreground service scanning all the time, with an ongoing notification.
+         */
+        FOREGROUND_SERVICE,
+        /**
+         * Periodic JobScheduler job scanning for a short window. Requires API 21, alarm duty
+         * cycle is used on older devices.
+         */
+        PERIODIC_JOB,
+        /**
+         * Inexact repeating alarm starting the scanner service for a short window.
+         */
+        ALARM_DUTY_CYCLE
+    }
+
+    private static final long DEFAULT_SCAN_WINDOW = 10 * 1000L;
+
+    private final Mode mode;
+    private final long interval;
+    private final long scanWindow;
+    private final int notificationId;
+    private final Notification notification;
+
+    private ScanSchedule(Mode mode, long interval, long scanWindow, int notificationId,
+                         Notification notification) {
+        this.mode = mode;
+        this.interval = interval;
+        this.scanWindow = scanWindow;
+        this.notificationId = notificationId;
+        this.notification = notification;
+    }
+
+    /**
+     * @return schedule scanning all the time in a started service
+     */
+    public static ScanSchedule continuous() {
+        return new ScanSchedule(Mode.CONTINUOUS, 0, 0, 0, null);
+    }
+
+    /**
+     * @param notificationId id of the notification shown while scanning
+     * @param notification ongoing notification shown while scanning
+     * @return schedule scanning all the time in a foreground service
+     */
+    public static ScanSchedule foregroundService(int notificationId, Notification notification) {
+        return new ScanSchedule(Mode.FOREGROUND_SERVICE, 0, 0, notificationId, notification);
+    }
+
+    /**
+     * @param interval period of the job in milliseconds, the system may enforce a minimum
+     * @param scanWindow how long each job scans, in milliseconds
+     * @return schedule scanning in periodic jobs
+     */
+    public static ScanSchedule periodicJob(long interval, long scanWindow) {
+        return new ScanSchedule(Mode.PERIODIC_JOB, interval, scanWindow, 0, null);
+    }
+
+    /**
+     * @param interval interval between scans in milliseconds, alarms are inexact to be batched
+     *                 with other wakeups
+     * @param scanWindow how long each scan lasts, in milliseconds
+     * @return schedule scanning on repeating alarms
+     */
+    public static ScanSchedule alarmDutyCycle(long interval, long scanWindow) {
+        return new ScanSchedule(Mode.ALARM_DUTY_CYCLE, interval, scanWindow, 0, null);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return duration of a single scan in milliseconds, 0 for scanning all the time
+     */
+    public long getScanWindow() {
+        return scanWindow > 0 || interval == 0 ? scanWindow : DEFAULT_SCAN_WINDOW;
+    }
+
+    public int getNotificationId() {
+        return notificationId;
+    }
+
+    public Notification getNotification() {
+        return notification;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Set;
+
+/**
+ * Starts and stops scanning according to a ScanSchedule. Scanner service running continuously
+ * is bound and controlled through its ScannerControl. Methods can be called on any thread, their
+ * work is posted to the main thread in order of the calls, so the service binding and
+ * the ScannerControl are used on the main thread only.
+ */
+class ScanScheduler {
+
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final int SCAN_JOB_ID = 0x42544a31;
+    private static final int ALARM_REQUEST_CODE = 0x42544131;
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Set and used on the main thread, volatile for getStats.
+     */
+    private volatile ScannerControl control;
+    private boolean bound;
+    private ScanSchedule boundSchedule;
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            control = ((BLEDeviceScanner.ScannerBinder) service).getControl();
+            control.setFilters(BLEDeviceManager.getInstance().getScanFilters());
+            if (boundSchedule != null) {
+                control.setSchedule(boundSchedule);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            control = null;
+        }
+    };
+
+    ScanScheduler(Context context) {
+        this.context = context;
+    }
+
+    void start(final ScanSchedule schedule) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                startOnMainThread(schedule);
+            }
+        });
+    }
+
+    void stop(final ScanSchedule schedule) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopOnMainThread(schedule);
+            }
+        });
+    }
+
+    /**
+     * Apply schedule to the running scanner without restarting it, if both schedules keep
+     * the scanner running.
+     * @return true if schedule is applied
+     */
+    boolean update(ScanSchedule previous, final ScanSchedule schedule) {
+        if (!isContinuous(previous) || !isContinuous(schedule)) {
+            return false;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                boundSchedule = schedule;
+                if (control != null) {
+                    control.setSchedule(schedule);
+                }
+            }
+        });
+        return true;
+    }
+
+    void setFilters(final Set<String> uuids) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (control != null) {
+                    control.setFilters(uuids);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return counters of the bound scanner, null if scanner is not bound
+     */
+    ScanStats getStats() {
+        ScannerControl control = this.control;
+        return control != null ? control.getStats() : null;
+    }
+
+    private void startOnMainThread(ScanSchedule schedule) {
+        switch (effectiveMode(schedule)) {
+            case CONTINUOUS:
+            case FOREGROUND_SERVICE:
+                Intent intent = new Intent(context, BLEDeviceScanner.class);
+                context.startService(intent);
+                boundSchedule = schedule;
+                if (control != null) {
+                    control.startScan();
+                    control.setSchedule(schedule);
+                } else if (!bound) {
+                    bound = context.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+                }
+                break;
+            case PERIODIC_JOB:
+                scheduleScanJob(schedule);
+                break;
+            case ALARM_DUTY_CYCLE:
+                AlarmManager alarmManager = (AlarmManager) context.getSystemService(
+                        Context.ALARM_SERVICE);
+                alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                        SystemClock.elapsedRealtime(), schedule.getInterval(),
+                        getAlarmIntent(schedule));
+                break;
+        }
+    }
+
+    private void stopOnMainThread(ScanSchedule schedule) {
+        switch (effectiveMode(schedule)) {
+            case PERIODIC_JOB:
+                cancelScanJob();
+                break;
+            case ALARM_DUTY_CYCLE:
+                PendingIntent alarmIntent = getAlarmIntent(schedule);
+                ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE))
+                        .cancel(alarmIntent);
+                alarmIntent.cancel();
+                break;
+            default:
+                break;
+        }
+        boundSchedule = null;
+        if (control != null) {
+            control.stopScan();
+            control = null;
+        }
+        if (bound) {
+            context.unbindService(connection);
+            bound = false;
+        }
+        context.stopService(new Intent(context, BLEDeviceScanner.class));
+    }
+
+    /**
+     * Used only when effectiveMode is PERIODIC_JOB, which requires Lollipop.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void scheduleScanJob(ScanSchedule schedule) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        JobInfo job = new JobInfo.Builder(SCAN_JOB_ID,
+                new ComponentName(context, BLEScanJobService.class))
+                .setPeriodic(schedule.getInterval())
+                .build();
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(TAG, "Unable to schedule scan job");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void cancelScanJob() {
+        ((JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE))
+                .cancel(SCAN_JOB_ID);
+    }
+
+    /**
+     * @return true if scanning has to be restarted by the application when Bluetooth is turned on
+     */
+    boolean isContinuous(ScanSchedule schedule) {
+        ScanSchedule.Mode mode = effectiveMode(schedule);
+        return mode == ScanSchedule.Mode.CONTINUOUS || mode == ScanSchedule.Mode.FOREGROUND_SERVICE;
+    }
+
+    private static ScanSchedule.Mode effectiveMode(ScanSchedule schedule) {
+        if (schedule.getMode() == ScanSchedule.Mode.PERIODIC_JOB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return ScanSchedule.Mode.ALARM_DUTY_CYCLE;
+        }
+        return schedule.getMode();
+    }
+
+    private PendingIntent getAlarmIntent(ScanSchedule schedule) {
+        Intent intent = new Intent(context, BLEDeviceScanner.class);
+        intent.putExtra(BLEDeviceScanner.EXTRA_SCAN_WINDOW, schedule.getScanWindow());
+        return PendingIntent.getService(context, ALARM_REQUEST_CODE, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
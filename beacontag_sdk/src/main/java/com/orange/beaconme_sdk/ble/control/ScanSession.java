@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.orange.beaconme_sdk.ble.decoders.PacketClassifier;
+import com.orange.beaconme_sdk.ble.model.BeaconTagDevice;
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LE scan passing received packets to BLEDeviceManager. Scan is restarted every 2 seconds, since
+ * some devices report each advertiser only once per scan. Shared by all scheduling modes.
+ */
+class ScanSession {
+
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final PacketClassifier CLASSIFIER =
+            new PacketClassifier(BeaconTagDevice.UUID_SERVICE_UUID);
+    private static final long RESCAN_PERIOD = 2000L;
+
+    private final Context context;
+    private BluetoothAdapter mAdapter;
+
+    private volatile Set<String> filters;
+    private volatile boolean scanning;
+    private volatile long startTime;
+    private final AtomicLong packetsReceived = new AtomicLong();
+    private final AtomicLong beaconsDetected = new AtomicLong();
+    private final AtomicLong beaconsFiltered = new AtomicLong();
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter();
+    /**
+     * Addresses of devices whose last packet advertised configuration mode. Devices are removed
+     * from the configuration cache only when they leave this set, not for every other packet.
+     */
+    private final Set<String> configModeAddresses =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private BluetoothAdapter.LeScanCallback mScanCallback = new BluetoothAdapter.LeScanCallback() {
+
+        @Override
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            packetsReceived.incrementAndGet();
+            if (duplicateFilter.isDuplicate(device.getAddress(), scanRecord,
+                    SystemClock.elapsedRealtime(), getDeviceManager().getDuplicateWindow())) {
+                return;
+            }
+            int packetFlags = CLASSIFIER.classify(scanRecord);
+            boolean isInConnectionState = (packetFlags & PacketClassifier.CONFIG_MODE) != 0;
+            if (isInConnectionState) {
+                configModeAddresses.add(device.getAddress());
+            } else if (configModeAddresses.remove(device.getAddress())) {
+                getDeviceManager().removeDeviceFromConfigurationCache(device.getAddress());
+            }
+
+            IBeaconDetect detection = (packetFlags & PacketClassifier.FRAME_DATA) != 0
+                    ? getDeviceManager().getFrameDecoders()
+                            .decode(device.getAddress(), rssi, scanRecord)
+                    : null;
+            Set<String> filters = ScanSession.this.filters;
+            if (detection != null && filters != null
+                    && !filters.contains(detection.getFootprint().getUuid())) {
+                beaconsFiltered.incrementAndGet();
+                return;
+            }
+            if (detection != null) {
+                beaconsDetected.incrementAndGet();
+                if (Log.isLoggable("RANGE", Log.DEBUG)) {
+                    Log.d("RANGE", detection.getRange() + " range for distance of "
+                            + detection.getDistance() + "m to "
+                            + detection.getFootprint().getUuid());
+                }
+                getDeviceManager().onDetect(detection);
+                getDeviceManager().onBeaconSeen(device, detection);
+            }
+
+            if (isInConnectionState && detection != null) {
+                getDeviceManager().onDeviceFound(device.getAddress(),
+                        new BeaconTagDevice(device, detection.getFootprint()), detection);
+            }
+        }
+    };
+
+    private Timer mReScanTimer;
+    private TimerTask mReScanTimerTask;
+
+    ScanSession(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Start scanning if Bluetooth is enabled.
+     * @return true if scan was started
+     */
+    boolean start() {
+        BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(
+                Context.BLUETOOTH_SERVICE);
+        mAdapter = bluetoothManager.getAdapter();
+        if (mAdapter == null || !mAdapter.isEnabled()) {
+            Log.d(TAG, "Bluetooth is disabled");
+            return false;
+        }
+        if (mAdapter.startLeScan(mScanCallback)) {
+            startTime = SystemClock.elapsedRealtime();
+            scanning = true;
+            startReScanTimer();
+            return true;
+        }
+        return false;
+    }
+
+    void stop() {
+        scanning = false;
+        stopReScanTimer();
+        BluetoothAdapter bluetoothAdapter = ((BluetoothManager)
+                context.getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
+        if (bluetoothAdapter != null) {
+            try {
+                bluetoothAdapter.stopLeScan(mScanCallback);
+            } catch (NullPointerException ex) {
+                //prevent OBGM-215 issue. For proper fix more information needed
+            }
+        }
+        configModeAddresses.clear();
+        duplicateFilter.clear();
+        getDeviceManager().clear();
+    }
+
+    /**
+     * @param uuids lower case uuids of beacons to pass to the detection pipeline, null for all
+     */
+    void setFilters(Set<String> uuids) {
+        filters = uuids;
+    }
+
+    ScanStats getStats() {
+        return new ScanStats(scanning, startTime, packetsReceived.get(), beaconsDetected.get(),
+                beaconsFiltered.get(), duplicateFilter.getDuplicatesDropped());
+    }
+
+    /**
+     * Restarts of the hardware scan follow the real time, not the clock of the detection logic,
+     * which can be virtual.
+     */
+    private void startReScanTimer() {
+        stopReScanTimer();
+        mReScanTimer = new Timer();
+        mReScanTimerTask = new TimerTask() {
+
+            @Override
+            public void run() {
+                if (mAdapter != null) {
+                    try {
+                        mAdapter.stopLeScan(mScanCallback);
+                    } catch (NullPointerException ex) {
+                        //prevent bug on Samsung devices : mAdapter is not null but raise NPE on stop method
+                    }
+                    mAdapter.startLeScan(mScanCallback);
+                }
+            }
+
+        };
+        mReScanTimer.schedule(mReScanTimerTask, RESCAN_PERIOD, RESCAN_PERIOD);
+    }
+
+    private void stopReScanTimer() {
+        if (mReScanTimerTask != null) {
+            mReScanTimerTask.cancel();
+            mReScanTimerTask = null;
+        }
+        if (mReScanTimer != null) {
+            mReScanTimer.cancel();
+            mReScanTimer = null;
+        }
+    }
+
+    private BLEDeviceManager getDeviceManager() {
+        return BLEDeviceManager.getInstance();
+    }
+}
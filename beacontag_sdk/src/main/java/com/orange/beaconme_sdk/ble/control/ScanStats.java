@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+/**
+ * Counters of a scan session.
+ */
+public class ScanStats {
+
+    private final boolean scanning;
+    private final long startTime;
+    private final long packetsReceived;
+    private final long beaconsDetected;
+    private final long beaconsFiltered;
+    private final long duplicatesDropped;
+
+    public ScanStats(boolean scanning, long startTime, long packetsReceived, long beaconsDetected,
+                     long beaconsFiltered, long duplicatesDropped) {
+        this.scanning = scanning;
+        this.startTime = startTime;
+        this.packetsReceived = packetsReceived;
+        this.beaconsDetected = beaconsDetected;
+        this.beaconsFiltered = beaconsFiltered;
+        this.duplicatesDropped = duplicatesDropped;
+    }
+
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    /**
+     * @return time the scan was started, in SystemClock.elapsedRealtime() milliseconds
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return number of advertising packets received
+     */
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * @return number of beacon frames passed to the detection pipeline
+     */
+    public long getBeaconsDetected() {
+        return beaconsDetected;
+    }
+
+    /**
+     * @return number of beacon frames dropped by the uuid filters
+     */
+    public long getBeaconsFiltered() {
+        return beaconsFiltered;
+    }
+
+    /**
+     * @return number of packets dropped as duplicates of a packet received just before
+     */
+    public long getDuplicatesDropped() {
+        return duplicatesDropped;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanStats{scanning=" + scanning + ", packets=" + packetsReceived
+                + ", detected=" + beaconsDetected + ", filtered=" + beaconsFiltered + ", duplicates=" + duplicatesDropped + "}";
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+import java.util.Set;
+
+/**
+ * Control channel of a bound BLEDeviceScanner. Methods must be called on the main thread and
+ * take effect before they return.
+ */
+public interface ScannerControl {
+
+    /**
+     * Start scanning if it is not running yet.
+     */
+    void startScan();
+
+    /**
+     * Stop scanning and the scanner service.
+     */
+    void stopScan();
+
+    /**
+     * Pass to the detection pipeline only beacons with given uuids.
+     * @param uuids lower case uuids, null to pass all beacons
+     */
+    void setFilters(Set<String> uuids);
+
+    /**
+     * Apply schedule which keeps the scanner running, i.e. switch between foreground and
+     * background service.
+     * @param schedule continuous or foreground service schedule
+     */
+    void setSchedule(ScanSchedule schedule);
+
+    /**
+     * @return counters of the current scan
+     */
+    ScanStats getStats();
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.control;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import com.orange.beaconme_sdk.ble.listeners.GATTCharacteristicListener;
+import com.orange.beaconme_sdk.ble.listeners.TelemetryListener;
+import com.orange.beaconme_sdk.ble.model.BeaconTagDevice;
+import com.orange.beaconme_sdk.ble.model.GATTOperation;
+import com.orange.beaconme_sdk.ble.model.TelemetrySample;
+import com.orange.beaconme_sdk.control.time.Clock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Connection to a BeaconTag which subscribes to notifications of its sensor characteristics and
+ * passes received samples to a listener in batches. Connection is restored until the session is
+ * stopped.
+ */
+public class TelemetrySession extends BLEDeviceGattController {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final UUID[] SENSOR_CHARACTERISTICS = {
+            BeaconTagDevice.TEMPERATURE_CHARACTERISTIC_UUID,
+            BeaconTagDevice.ACCELERATION_CHARACTERISTIC_UUID,
+            BeaconTagDevice.ANGULAR_SPEED_CHARACTERISTIC_UUID};
+
+    private final TelemetryListener listener;
+    private final int batchSize;
+    private final long maxBatchDelay;
+
+    private final Object batchLock = new Object();
+    private List<TelemetrySample> batch;
+    private boolean flushScheduled;
+
+    private final GATTCharacteristicListener sampleListener = new GATTCharacteristicListener() {
+        @Override
+        public void changed(int status, BluetoothGattCharacteristic c) {
+            onSample(c);
+        }
+    };
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param device device to collect samples from
+     * @param context Application Context
+     * @param listener receives batches of samples
+     * @param batchSize number of samples after which batch is delivered
+     * @param maxBatchDelay max time in milliseconds a sample waits before batch is delivered
+     */
+    public TelemetrySession(BeaconTagDevice device, Context context, TelemetryListener listener,
+                            int batchSize, long maxBatchDelay) {
+        super(device, context);
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.maxBatchDelay = maxBatchDelay;
+        batch = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Close connection and deliver pending samples. Must be called on the main thread.
+     */
+    public void stop() {
+        forceClose();
+        flush();
+    }
+
+    @Override
+    protected BluetoothGattCallback getCallback() {
+        return new TelemetryGattCallback();
+    }
+
+    private void subscribe() {
+        BluetoothGattService service = getGatt().getService(BeaconTagDevice.WAKE_UP_SERVICE_UUID);
+        if (service == null) {
+            Log.e(TAG, "Sensor service not found");
+            forceClose();
+            BLEDeviceManager manager = BLEDeviceManager.getInstance();
+            if (manager != null) {
+                manager.onTelemetrySessionClosed(getDevice().getFootprint(), this);
+            }
+            return;
+        }
+        for (UUID uuid : SENSOR_CHARACTERISTICS) {
+            BluetoothGattCharacteristic c = service.getCharacteristic(uuid);
+            if (c != null && (c.getProperties() & (BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                    | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+                queue(new GATTOperation(GATTOperation.OperationType.NOTIFY_START, c,
+                        sampleListener));
+            }
+        }
+    }
+
+    private void onSample(BluetoothGattCharacteristic c) {
+        byte[] raw = c.getValue();
+        if (raw == null) {
+            return;
+        }
+        TelemetrySample.Sensor sensor;
+        if (BeaconTagDevice.TEMPERATURE_CHARACTERISTIC_UUID.equals(c.getUuid())) {
+            sensor = TelemetrySample.Sensor.TEMPERATURE;
+        } else if (BeaconTagDevice.ACCELERATION_CHARACTERISTIC_UUID.equals(c.getUuid())) {
+            sensor = TelemetrySample.Sensor.ACCELERATION;
+        } else {
+            sensor = TelemetrySample.Sensor.ANGULAR_SPEED;
+        }
+        TelemetrySample sample = new TelemetrySample(sensor,
+                Clock.getDefault().currentTimeMillis(), raw.clone());
+        synchronized (batchLock) {
+            batch.add(sample);
+            if (batch.size() >= batchSize) {
+                handler.removeCallbacks(flushRunnable);
+                handler.post(flushRunnable);
+                flushScheduled = true;
+            } else if (!flushScheduled) {
+                handler.postDelayed(flushRunnable, maxBatchDelay);
+                flushScheduled = true;
+            }
+        }
+    }
+
+    private void flush() {
+        List<TelemetrySample> samples;
+        synchronized (batchLock) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            if (batch.isEmpty()) {
+                return;
+            }
+            samples = batch;
+            batch = new ArrayList<>(batchSize);
+        }
+        listener.onSamples(getDevice().getFootprint(), Collections.unmodifiableList(samples));
+    }
+
+    class TelemetryGattCallback extends OperationGattCallback {
+
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            Log.d(TAG, String.format("onConnectionStateChange status=%d, newState=%d", status,
+                    newState));
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                gatt.discoverServices();
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                reconnect();
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            Log.d(TAG, "onServicesDiscovered status=" + status);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                reconnect();
+            } else {
+                subscribe();
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.e(TAG, "Subscription failed for " + descriptor.getCharacteristic().getUuid());
+            }
+            super.onDescriptorWrite(gatt, descriptor, status);
+        }
+    }
+}
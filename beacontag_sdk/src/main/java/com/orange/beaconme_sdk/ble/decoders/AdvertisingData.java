@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.decoders;
+
+/**
+ * Lookup of advertising data structures in raw scan record bytes. Structures are walked by their
+ * length bytes without copying, so decoders can reject foreign packets cheaply.
+ */
+final class AdvertisingData {
+
+    static final int DATA_TYPE_SERVICE_DATA = 0x16;
+    static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    private AdvertisingData() {
+    }
+
+    /**
+     * Find manufacturer specific data whose bytes following the company id match given prefix.
+     * @param record raw scan record
+     * @param prefix0 first byte after the company id
+     * @param prefix1 second byte after the company id
+     * @param minLength minimal length of the data, including the company id
+     * @return offset of the data (at the company id), -1 if not found
+     */
+    static int findManufacturerData(byte[] record, int prefix0, int prefix1, int minLength) {
+        int pos = 0;
+        while (pos < record.length) {
+            int length = record[pos] & 0xFF;
+            if (length == 0 || pos + length >= record.length) {
+                return -1;
+            }
+            int data = pos + 2;
+            if ((record[pos + 1] & 0xFF) == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA
+                    && length - 1 >= minLength
+                    && (record[data + 2] & 0xFF) == prefix0
+                    && (record[data + 3] & 0xFF) == prefix1) {
+                return data;
+            }
+            pos += length + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Find service data of a 16-bit service uuid whose first byte matches given frame type.
+     * @param record raw scan record
+     * @param serviceUuid 16-bit service uuid
+     * @param frameType first byte of the service data
+     * @param minLength minimal length of the service data, excluding the service uuid
+     * @return offset of the service data (after the service uuid), -1 if not found
+     */
+    static int findServiceData(byte[] record, int serviceUuid, int frameType, int minLength) {
+        int pos = 0;
+        while (pos < record.length) {
+            int length = record[pos] & 0xFF;
+            if (length == 0 || pos + length >= record.length) {
+                return -1;
+            }
+            int data = pos + 2;
+            if ((record[pos + 1] & 0xFF) == DATA_TYPE_SERVICE_DATA
+                    && length - 3 >= minLength
+                    && (record[data] & 0xFF) == (serviceUuid & 0xFF)
+                    && (record[data + 1] & 0xFF) == (serviceUuid >> 8)
+                    && (record[data + 2] & 0xFF) == frameType) {
+                return data + 2;
+            }
+            pos += length + 1;
+        }
+        return -1;
+    }
+
+    static int uint16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    static long uint32(byte[] bytes, int offset) {
+        return (long) uint16(bytes, offset) << 16 | uint16(bytes, offset + 2);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.decoders;
+
+import com.orange.beaconme_sdk.ble.model.EddystoneTelemetry;
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoder of unencrypted Eddystone-TLM frames. TLM frames carry no beacon identity, so instead of
+ * producing a detection the telemetry is kept by device address until the identity frame of
+ * the same device is decoded.
+ */
+public class EddystoneTlmDecoder implements FrameDecoder {
+
+    private static final int FRAME_TYPE_TLM = 0x20;
+    private static final int FRAME_LENGTH = 14;
+    private static final int TLM_VERSION = 0x00;
+    private static final int MAX_DEVICES = 256;
+
+    private final Map<String, EddystoneTelemetry> telemetry =
+            new LinkedHashMap<String, EddystoneTelemetry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EddystoneTelemetry> eldest) {
+            return size() > MAX_DEVICES;
+        }
+    };
+
+    @Override
+    public IBeaconDetect decode(String address, int rssi, byte[] scanRecord) {
+        int offset = AdvertisingData.findServiceData(scanRecord,
+                EddystoneUidDecoder.EDDYSTONE_SERVICE_UUID, FRAME_TYPE_TLM, FRAME_LENGTH);
+        if (offset < 0 || scanRecord[offset + 1] != TLM_VERSION) {
+            return null;
+        }
+        int batteryVoltage = AdvertisingData.uint16(scanRecord, offset + 2);
+        int rawTemperature = (short) AdvertisingData.uint16(scanRecord, offset + 4);
+        float temperature = rawTemperature == Short.MIN_VALUE ? Float.NaN : rawTemperature / 256f;
+        long advertisingCount = AdvertisingData.uint32(scanRecord, offset + 6);
+        long uptime = AdvertisingData.uint32(scanRecord, offset + 10) * 100;
+        synchronized (telemetry) {
+            telemetry.put(address, new EddystoneTelemetry(batteryVoltage, temperature,
+                    advertisingCount, uptime));
+        }
+        return null;
+    }
+
+    /**
+     * @param address physical address of the device
+     * @return latest telemetry received from the device, null if there is none
+     */
+    public EddystoneTelemetry getTelemetry(String address) {
+        synchronized (telemetry) {
+            return telemetry.get(address);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.decoders;
+
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.ble.utils.ByteArrayUtils;
+
+/**
+ * Decoder of Eddystone-UID frames. The 10 bytes namespace followed by the 6 bytes instance are
+ * used as uuid, major and minor are 0. Latest telemetry of the same device, if any, is attached
+ * to the detection.
+ */
+public class EddystoneUidDecoder implements FrameDecoder {
+
+    static final int EDDYSTONE_SERVICE_UUID = 0xFEAA;
+
+    private static final int FRAME_TYPE_UID = 0x00;
+    private static final int FRAME_LENGTH = 18;
+
+    /**
+     * Eddystone calibrates tx power at 0 meters, while detections expect power at 1 meter.
+     */
+    private static final int ONE_METER_LOSS = 41;
+
+    private final EddystoneTlmDecoder tlmDecoder;
+
+    /**
+     * @param tlmDecoder decoder to take telemetry from, may be null
+     */
+    public EddystoneUidDecoder(EddystoneTlmDecoder tlmDecoder) {
+        this.tlmDecoder = tlmDecoder;
+    }
+
+    @Override
+    public IBeaconDetect decode(String address, int rssi, byte[] scanRecord) {
+        int offset = AdvertisingData.findServiceData(scanRecord, EDDYSTONE_SERVICE_UUID,
+                FRAME_TYPE_UID, FRAME_LENGTH);
+        if (offset < 0) {
+            return null;
+        }
+        int txPower = scanRecord[offset + 1] - ONE_METER_LOSS;
+        byte[] uuidBytes = new byte[16];
+        System.arraycopy(scanRecord, offset + 2, uuidBytes, 0, 16);
+        String uuid = ByteArrayUtils.bytesToUUID(uuidBytes);
+        return new IBeaconDetect(uuid, 0, 0, rssi, txPower,
+                tlmDecoder != null ? tlmDecoder.getTelemetry(address) : null);
+    }
+}
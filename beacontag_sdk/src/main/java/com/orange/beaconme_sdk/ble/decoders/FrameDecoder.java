@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.decoders;
+
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+
+/**
+ * Decoder of one advertising frame format.
+ */
+public interface FrameDecoder {
+
+    /**
+     * Decode scan record into a detection. Called for every received packet with manufacturer
+     * specific or service data, so packets of other formats must be rejected by a cheap check of
+     * the raw bytes.
+     * @param address physical address of the device
+     * @param rssi received signal strength
+     * @param scanRecord raw scan record
+     * @return detection, null if packet is not of this format or carries no beacon identity
+     */
+    IBeaconDetect decode(String address, int rssi, byte[] scanRecord);
+}
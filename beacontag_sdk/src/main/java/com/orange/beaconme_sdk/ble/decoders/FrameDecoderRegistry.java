@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.decoders;
+
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ordered set of frame decoders. Each packet is passed to the decoders in registration order
+ * until one of them returns a detection.
+ */
+public class FrameDecoderRegistry {
+
+    private final List<FrameDecoder> decoders = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return registry with iBeacon, Eddystone-TLM, Eddystone-UID and AltBeacon decoders
+     */
+    public static FrameDecoderRegistry createDefault() {
+        FrameDecoderRegistry registry = new FrameDecoderRegistry();
+        EddystoneTlmDecoder tlmDecoder = new EddystoneTlmDecoder();
+        registry.register(new IBeaconDecoder());
+        registry.register(tlmDecoder);
+        registry.register(new EddystoneUidDecoder(tlmDecoder));
+        registry.register(new AltBeaconDecoder());
+        return registry;
+    }
+
+    /**
+     * Add decoder after already registered ones.
+     * @param decoder decoder to add
+     */
+    public void register(FrameDecoder decoder) {
+        decoders.add(decoder);
+    }
+
+    /**
+     * @param decoder decoder to remove
+     * @return true if decoder was registered
+     */
+    public boolean unregister(FrameDecoder decoder) {
+        return decoders.remove(decoder);
+    }
+
+    /**
+     * Decode scan record with the first decoder which recognizes it.
+     * @param address physical address of the device
+     * @param rssi received signal strength
+     * @param scanRecord raw scan record
+     * @return detection, null if no decoder recognizes the packet
+     */
+    public IBeaconDetect decode(String address, int rssi, byte[] scanRecord) {
+        if (scanRecord == null) {
+            return null;
+        }
+        for (FrameDecoder decoder : decoders) {
+            IBeaconDetect detection = decoder.decode(address, rssi, scanRecord);
+            if (detection != null) {
+                return detection;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.decoders;
+
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.ble.utils.ByteArrayUtils;
+
+/**
+ * Decoder of Apple iBeacon frames: manufacturer data with 0x02 0x15 prefix, followed by
+ * uuid, major, minor and measured power at 1 meter.
+ */
+public class IBeaconDecoder implements FrameDecoder {
+
+    private static final int DATA_LENGTH = 25;
+
+    @Override
+    public IBeaconDetect decode(String address, int rssi, byte[] scanRecord) {
+        int offset = AdvertisingData.findManufacturerData(scanRecord, 0x02, 0x15, DATA_LENGTH);
+        if (offset < 0) {
+            return null;
+        }
+        byte[] uuidBytes = new byte[16];
+        System.arraycopy(scanRecord, offset + 4, uuidBytes, 0, 16);
+        String uuid = ByteArrayUtils.bytesToUUID(uuidBytes);
+        int major = AdvertisingData.uint16(scanRecord, offset + 20);
+        int minor = AdvertisingData.uint16(scanRecord, offset + 22);
+        int txPower = scanRecord[offset + 24];
+        return new IBeaconDetect(uuid, major, minor, rssi, txPower);
+    }
+}
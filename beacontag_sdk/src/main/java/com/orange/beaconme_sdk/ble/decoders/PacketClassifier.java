@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.decoders;
+
+import java.util.UUID;
+
+/**
+ * Classification of raw scan records in a single walk over their advertising data structures.
+ * A packet can carry a beacon frame and advertise the configuration service at the same time,
+ * so the result is a combination of flags.
+ */
+public final class PacketClassifier {
+
+    /**
+     * Packet contains manufacturer specific or service data, which carry all beacon frames.
+     * Packets without it are not passed to frame decoders.
+     */
+    public static final int FRAME_DATA = 1;
+    /**
+     * Packet advertises the configuration service, so the device accepts connections.
+     */
+    public static final int CONFIG_MODE = 2;
+
+    private static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL = 0x06;
+    private static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE = 0x07;
+    private static final int UUID_LENGTH = 16;
+
+    private final byte[] configServiceUuid;
+
+    /**
+     * @param configServiceUuid service uuid advertised by devices in configuration mode
+     */
+    public PacketClassifier(UUID configServiceUuid) {
+        // 128-bit uuids are advertised in little endian byte order
+        this.configServiceUuid = new byte[UUID_LENGTH];
+        long lsb = configServiceUuid.getLeastSignificantBits();
+        long msb = configServiceUuid.getMostSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            this.configServiceUuid[i] = (byte) (lsb >>> (8 * i));
+            this.configServiceUuid[i + 8] = (byte) (msb >>> (8 * i));
+        }
+    }
+
+    /**
+     * @param record raw scan record
+     * @return combination of FRAME_DATA and CONFIG_MODE flags, 0 for other packets
+     */
+    public int classify(byte[] record) {
+        if (record == null) {
+            return 0;
+        }
+        int flags = 0;
+        int pos = 0;
+        while (pos < record.length) {
+            int length = record[pos] & 0xFF;
+            if (length == 0 || pos + length >= record.length) {
+                break;
+            }
+            int type = record[pos + 1] & 0xFF;
+            int data = pos + 2;
+            if (type == AdvertisingData.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA
+                    || type == AdvertisingData.DATA_TYPE_SERVICE_DATA) {
+                flags |= FRAME_DATA;
+            } else if (type == DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL
+                    || type == DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE) {
+                for (int uuid = data; uuid + UUID_LENGTH <= pos + length + 1; uuid += UUID_LENGTH) {
+                    if (matchesConfigService(record, uuid)) {
+                        flags |= CONFIG_MODE;
+                        break;
+                    }
+                }
+            }
+            pos += length + 1;
+        }
+        return flags;
+    }
+
+    private boolean matchesConfigService(byte[] record, int offset) {
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            if (record[offset + i] != configServiceUuid[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
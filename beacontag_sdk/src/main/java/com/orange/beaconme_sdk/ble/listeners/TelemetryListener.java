@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.listeners;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.TelemetrySample;
+
+import java.util.List;
+
+/**
+ * Receives sensor samples of a telemetry session. Invoked on the main thread.
+ */
+public interface TelemetryListener {
+
+    /**
+     * @param footprint footprint of the device
+     * @param samples samples received since the previous invocation, in order of arrival
+     */
+    void onSamples(DeviceFootprint footprint, List<TelemetrySample> samples);
+}
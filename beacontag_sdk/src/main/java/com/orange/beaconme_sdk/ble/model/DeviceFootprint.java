@@ -21,6 +21,12 @@ import java.io.Serializable;
  */
 public class DeviceFootprint implements Serializable {
 
+    /**
+     * Value of major or minor which matches any major or minor. Footprint with such a value
+     * describes a region: all devices with the same uuid, or the same uuid and major.
+     */
+    public static final int ANY = -1;
+
     private String uuid;
 
     private int major;
@@ -53,6 +59,25 @@ public class DeviceFootprint implements Serializable {
         return minor;
     }
 
+    /**
+     * @return true if major or minor of this footprint is ANY
+     */
+    public boolean isWildcard() {
+        return major == ANY || minor == ANY;
+    }
+
+    /**
+     * Check if given device footprint belongs to this footprint. Footprint without wildcards
+     * matches only equal footprint, uuids are compared ignoring case.
+     * @param other footprint of a detected device
+     * @return true if footprints match
+     */
+    public boolean matches(DeviceFootprint other) {
+        return (major == ANY || major == other.major)
+                && (minor == ANY || minor == other.minor)
+                && uuid.equalsIgnoreCase(other.uuid);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.model;
+
+/**
+ * Telemetry broadcast by an Eddystone beacon in TLM frames.
+ */
+public class EddystoneTelemetry {
+
+    private final int batteryVoltage;
+    private final float temperature;
+    private final long advertisingCount;
+    private final long uptime;
+
+    public EddystoneTelemetry(int batteryVoltage, float temperature, long advertisingCount,
+                              long uptime) {
+        this.batteryVoltage = batteryVoltage;
+        this.temperature = temperature;
+        this.advertisingCount = advertisingCount;
+        this.uptime = uptime;
+    }
+
+    /**
+     * @return battery voltage in millivolts, 0 if not supported by the beacon
+     */
+    public int getBatteryVoltage() {
+        return batteryVoltage;
+    }
+
+    /**
+     * @return temperature in degrees Celsius, NaN if not supported by the beacon
+     */
+    public float getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * @return number of frames advertised since the beacon was powered on
+     */
+    public long getAdvertisingCount() {
+        return advertisingCount;
+    }
+
+    /**
+     * @return time since the beacon was powered on, in milliseconds
+     */
+    public long getUptime() {
+        return uptime;
+    }
+}
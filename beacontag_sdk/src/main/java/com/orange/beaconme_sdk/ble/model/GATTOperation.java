@@ -14,16 +14,33 @@
  */
 package com.orange.beaconme_sdk.ble.model;
 
+import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 
 import com.orange.beaconme_sdk.ble.listeners.GATTCharacteristicListener;
 import com.orange.beaconme_sdk.ble.listeners.IGATTDescriptorListener;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Operation queued in BLEDeviceGattController. Once the operation completes its listener is
+ * invoked and its future is completed with the GATT status.
+ */
 
 public class GATTOperation {
 	public enum OperationType {
 		READ_CHARACTERISTIC, WRITE_CHARACTERISTIC, READ_DESCRIPTOR, WRITE_DESCRIPTOR, NOTIFY_START, NOTIFY_END,
+		REQUEST_MTU, READ_RSSI,
+	}
+
+	/**
+	 * Invoked when operation completes, on the thread of the GATT callback.
+	 */
+	public interface OnCompleteListener {
+		void onComplete(GATTOperation operation, int status);
 	}
 
 	protected OperationType mType;
@@ -31,6 +48,17 @@ public class GATTOperation {
 	protected BluetoothGattDescriptor mDescriptor;
 	protected GATTCharacteristicListener mCharListener;
 	protected IGATTDescriptorListener mDescListener;
+	protected int mMtu;
+	protected int mRssi;
+
+	private OnCompleteListener mCompleteListener;
+	private volatile int mStatus;
+	private final FutureTask<Integer> mFuture = new FutureTask<>(new Callable<Integer>() {
+		@Override
+		public Integer call() {
+			return mStatus;
+		}
+	});
 
 	public GATTOperation(OperationType type,
                          BluetoothGattCharacteristic characteristic,
@@ -58,6 +86,62 @@ public class GATTOperation {
 		mDescriptor = descriptor;
 	}
 
+	private GATTOperation(OperationType type) {
+		mType = type;
+	}
+
+	/**
+	 * @param mtu requested MTU
+	 * @return operation requesting MTU of the connection, supported since API 21
+	 */
+	public static GATTOperation requestMtu(int mtu) {
+		GATTOperation op = new GATTOperation(OperationType.REQUEST_MTU);
+		op.mMtu = mtu;
+		return op;
+	}
+
+	/**
+	 * @return operation reading RSSI of the connection
+	 */
+	public static GATTOperation readRssi() {
+		return new GATTOperation(OperationType.READ_RSSI);
+	}
+
+	/**
+	 * @param listener invoked when operation completes
+	 * @return this operation
+	 */
+	public GATTOperation setOnCompleteListener(OnCompleteListener listener) {
+		mCompleteListener = listener;
+		return this;
+	}
+
+	/**
+	 * @return future completed with GATT status of the operation, cancelled if connection
+	 * was closed before the operation completed
+	 */
+	public Future<Integer> getFuture() {
+		return mFuture;
+	}
+
+	public GATTCharacteristicListener getCharacteristicListener() {
+		return mCharListener;
+	}
+
+	/**
+	 * @return requested MTU, or negotiated MTU once operation completed
+	 */
+	public int getMtu() {
+		return mMtu;
+	}
+
+	/**
+	 * @return RSSI read by the operation
+	 */
+	public int getRssi() {
+		return mRssi;
+	}
+
 	public OperationType getType() {
 		return mType;
 	}
@@ -77,14 +161,55 @@ public class GATTOperation {
             else if (mType == OperationType.WRITE_CHARACTERISTIC)
                 mCharListener.written(status, c);
         }
+		finish(status);
 	}
 
+	/**
+	 * Complete descriptor operation. Subscription changes are completed by the write of
+	 * the notification descriptor.
+	 */
 	public void complete(int status, BluetoothGattDescriptor d) {
         if (mDescListener != null) {
-            if (mType == OperationType.READ_CHARACTERISTIC)
+            if (mType == OperationType.READ_DESCRIPTOR)
                 mDescListener.read(status, d);
-            else if (mType == OperationType.WRITE_CHARACTERISTIC)
+            else if (mType == OperationType.WRITE_DESCRIPTOR || mType == OperationType.NOTIFY_START
+					|| mType == OperationType.NOTIFY_END)
                 mDescListener.written(status, d);
         }
+		finish(status);
+	}
+
+	public void completeMtu(int status, int mtu) {
+		if (status == BluetoothGatt.GATT_SUCCESS) {
+			mMtu = mtu;
+		}
+		finish(status);
+	}
+
+	public void completeRssi(int status, int rssi) {
+		mRssi = rssi;
+		finish(status);
+	}
+
+	/**
+	 * Complete operation which couldn't be started.
+	 */
+	public void fail(int status) {
+		finish(status);
+	}
+
+	/**
+	 * Cancel future of the operation which will never complete.
+	 */
+	public void cancel() {
+		mFuture.cancel(false);
+	}
+
+	private void finish(int status) {
+		mStatus = status;
+		if (mCompleteListener != null) {
+			mCompleteListener.onComplete(this, status);
+		}
+		mFuture.run();
 	}
 }
@@ -15,6 +15,8 @@
 package com.orange.beaconme_sdk.ble.model;
 
 
+import com.orange.beaconme_sdk.control.time.Clock;
+
 import java.util.Date;
 
 /**
@@ -25,13 +27,57 @@ public class IBeaconDetect {
     private final DeviceFootprint footprint;
     private final int rssi;
     private final Date detectTime;
+    private final long elapsedTime;
     private final int txPower;
+    private final EddystoneTelemetry telemetry;
 
     public IBeaconDetect(String uuid, int major, int minor, int rssi, int txPower) {
+        this(uuid, major, minor, rssi, txPower, null);
+    }
+
+    /**
+     * @param uuid beacon uuid
+     * @param major beacon major
+     * @param minor beacon minor
+     * @param rssi received signal strength
+     * @param txPower signal strength at 1 meter
+     * @param telemetry latest telemetry of the beacon, may be null
+     */
+    public IBeaconDetect(String uuid, int major, int minor, int rssi, int txPower,
+                         EddystoneTelemetry telemetry) {
+        this(uuid, major, minor, rssi, txPower, telemetry, Clock.getDefault());
+    }
+
+    /**
+     * @param uuid beacon uuid
+     * @param major beacon major
+     * @param minor beacon minor
+     * @param rssi received signal strength
+     * @param txPower signal strength at 1 meter
+     * @param telemetry latest telemetry of the beacon, may be null
+     * @param clock clock giving time of the detection
+     */
+    public IBeaconDetect(String uuid, int major, int minor, int rssi, int txPower,
+                         EddystoneTelemetry telemetry, Clock clock) {
         footprint = new DeviceFootprint(uuid.toLowerCase(), major, minor);
         this.rssi = rssi;
-        this.detectTime = new Date();
+        this.detectTime = new Date(clock.currentTimeMillis());
+        this.elapsedTime = clock.elapsedRealtime();
         this.txPower = txPower;
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * @param detection detection to copy, its time is kept
+     * @param rssi received signal strength of the copy
+     */
+    protected IBeaconDetect(IBeaconDetect detection, int rssi) {
+        footprint = detection.footprint;
+        this.rssi = rssi;
+        detectTime = detection.detectTime;
+        elapsedTime = detection.elapsedTime;
+        txPower = detection.txPower;
+        telemetry = detection.telemetry;
     }
 
     public DeviceFootprint getFootprint() {
@@ -45,14 +91,42 @@ public class IBeaconDetect {
     public Date getDetectTime() {
         return detectTime;
     }
+
+    /**
+     * @return time of the detection, in Clock.elapsedRealtime() milliseconds
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
     
+    /**
+     * @return telemetry received from Eddystone beacon, null if there is none
+     */
+    public EddystoneTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * @return signal strength at 1 meter
+     */
+    public int getTxPower() {
+        return txPower;
+    }
+
     public double getDistance() {
-        return Math.sqrt(Math.pow(10, (txPower - rssi) / 10.0));
+        return RangeModel.DEFAULT.getDistance(txPower, rssi);
     }
     
     public BLERange getRange(){
-        return BLERange.getRange(getDistance());
-        
+        return RangeModel.DEFAULT.getRange(txPower, rssi);
+    }
+
+    /**
+     * @param model range model of the registration
+     * @return range of the detection according to given model
+     */
+    public BLERange getRange(RangeModel model) {
+        return model.getRange(txPower, rssi);
     }
     
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.model;
+
+/**
+ * Log-distance path-loss model classifying detections into ranges. Range thresholds are
+ * converted once into path-loss cut-points, so classification of a detection compares
+ * integers only.
+ * <p>
+ * Distance is estimated as 10 ^ ((txPower - rssi) / (10 * n)), where n is the path-loss
+ * exponent: 2 in free space, usually 2.5 to 4 indoors.
+ */
+public class RangeModel {
+
+    /**
+     * Model used when no other model is set: 1 and 10 meters thresholds in free space.
+     */
+    public static final RangeModel DEFAULT = new RangeModel(1, 10, 2);
+
+    private final double immediateThreshold;
+    private final double nearThreshold;
+    private final double pathLossExponent;
+
+    private final int immediateCut;
+    private final int nearCut;
+
+    /**
+     * @param immediateThreshold max distance in meters of the IMMIDIATE range
+     * @param nearThreshold max distance in meters of the NEAR range
+     * @param pathLossExponent path-loss exponent of the environment
+     */
+    public RangeModel(double immediateThreshold, double nearThreshold, double pathLossExponent) {
+        if (immediateThreshold <= 0 || nearThreshold < immediateThreshold) {
+            throw new IllegalArgumentException("Invalid range thresholds: " + immediateThreshold
+                    + ", " + nearThreshold);
+        }
+        if (pathLossExponent <= 0) {
+            throw new IllegalArgumentException("Invalid path-loss exponent: " + pathLossExponent);
+        }
+        this.immediateThreshold = immediateThreshold;
+        this.nearThreshold = nearThreshold;
+        this.pathLossExponent = pathLossExponent;
+        immediateCut = toPathLoss(immediateThreshold);
+        nearCut = toPathLoss(nearThreshold);
+    }
+
+    /**
+     * @return max path loss in dB for which estimated distance is within given distance
+     */
+    private int toPathLoss(double distance) {
+        return (int) Math.floor(10 * pathLossExponent * Math.log10(distance) + 1e-9);
+    }
+
+    /**
+     * @param txPower signal strength at 1 meter
+     * @param rssi received signal strength
+     * @return range of the detection
+     */
+    public BLERange getRange(int txPower, int rssi) {
+        int pathLoss = txPower - rssi;
+        if (pathLoss <= immediateCut) {
+            return BLERange.IMMIDIATE;
+        }
+        if (pathLoss <= nearCut) {
+            return BLERange.NEAR;
+        }
+        return BLERange.FAR;
+    }
+
+    /**
+     * Classify detection with hysteresis: detection leaves current range only if its path loss
+     * is beyond the cut-points of the range by more than given margin, so a device at the edge
+     * of a range doesn't flap between two ranges.
+     * @param txPower signal strength at 1 meter
+     * @param rssi received signal strength
+     * @param current current range of the device, null if it is not visible
+     * @param margin hysteresis margin in dB
+     * @return range of the detection
+     */
+    public BLERange getRange(int txPower, int rssi, BLERange current, int margin) {
+        if (current == null || margin <= 0) {
+            return getRange(txPower, rssi);
+        }
+        int pathLoss = txPower - rssi;
+        boolean beyondLower;
+        boolean beyondUpper;
+        switch (current) {
+            case IMMIDIATE:
+                beyondLower = false;
+                beyondUpper = pathLoss > immediateCut + margin;
+                break;
+            case NEAR:
+                beyondLower = pathLoss <= immediateCut - margin;
+                beyondUpper = pathLoss > nearCut + margin;
+                break;
+            default:
+                beyondLower = pathLoss <= nearCut - margin;
+                beyondUpper = false;
+                break;
+        }
+        return beyondLower || beyondUpper ? getRange(txPower, rssi) : current;
+    }
+
+    /**
+     * @param txPower signal strength at 1 meter
+     * @param rssi received signal strength
+     * @return estimated distance in meters
+     */
+    public double getDistance(int txPower, int rssi) {
+        return Math.pow(10, (txPower - rssi) / (10 * pathLossExponent));
+    }
+
+    public double getImmediateThreshold() {
+        return immediateThreshold;
+    }
+
+    public double getNearThreshold() {
+        return nearThreshold;
+    }
+
+    public double getPathLossExponent() {
+        return pathLossExponent;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RangeModel)) return false;
+        RangeModel that = (RangeModel) o;
+        return Double.compare(that.immediateThreshold, immediateThreshold) == 0
+                && Double.compare(that.nearThreshold, nearThreshold) == 0
+                && Double.compare(that.pathLossExponent, pathLossExponent) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(immediateThreshold);
+        bits = 31 * bits + Double.doubleToLongBits(nearThreshold);
+        bits = 31 * bits + Double.doubleToLongBits(pathLossExponent);
+        return (int) (bits ^ (bits >>> 32));
+    }
+}
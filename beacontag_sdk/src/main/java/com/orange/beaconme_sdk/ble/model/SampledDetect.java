@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.model;
+
+/**
+ * Detection standing for all detections of a beacon received during a sampling interval. Its
+ * signal strength is the average of the interval, which is less noisy than a single packet.
+ */
+public class SampledDetect extends IBeaconDetect {
+
+    private final int maxRssi;
+    private final int sampleCount;
+
+    /**
+     * @param latest last detection of the interval, its time, tx power and telemetry are kept
+     * @param averageRssi average received signal strength of the interval
+     * @param maxRssi strongest received signal strength of the interval
+     * @param sampleCount number of detections in the interval
+     */
+    public SampledDetect(IBeaconDetect latest, int averageRssi, int maxRssi, int sampleCount) {
+        super(latest, averageRssi);
+        this.maxRssi = maxRssi;
+        this.sampleCount = sampleCount;
+    }
+
+    /**
+     * @return strongest received signal strength of the interval
+     */
+    public int getMaxRssi() {
+        return maxRssi;
+    }
+
+    /**
+     * @return number of detections the sample stands for
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+}
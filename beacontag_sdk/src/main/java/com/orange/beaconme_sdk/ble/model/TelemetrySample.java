@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.model;
+
+import java.util.Arrays;
+
+/**
+ * Value of a sensor characteristic notified by a BeaconTag. The layout of notified values
+ * depends on the firmware and is not documented, so the value is passed as received.
+ */
+public class TelemetrySample {
+
+    public enum Sensor {
+        TEMPERATURE, ACCELERATION, ANGULAR_SPEED
+    }
+
+    private final Sensor sensor;
+    private final long timestamp;
+    private final byte[] rawValue;
+
+    public TelemetrySample(Sensor sensor, long timestamp, byte[] rawValue) {
+        this.sensor = sensor;
+        this.timestamp = timestamp;
+        this.rawValue = rawValue;
+    }
+
+    public Sensor getSensor() {
+        return sensor;
+    }
+
+    /**
+     * @return time the sample was received, in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return bytes of the characteristic as notified by the device
+     */
+    public byte[] getRawValue() {
+        return rawValue;
+    }
+
+    @Override
+    public String toString() {
+        return "TelemetrySample{" + sensor + ", raw=" + Arrays.toString(rawValue) + "}";
+    }
+}
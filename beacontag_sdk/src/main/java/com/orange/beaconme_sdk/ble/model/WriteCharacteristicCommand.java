@@ -14,6 +14,7 @@
  */
 package com.orange.beaconme_sdk.ble.model;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -53,6 +54,16 @@ public class WriteCharacteristicCommand {
         return bytesToUpload;
     }
 
+    /**
+     * @param other another command
+     * @return true if both commands set the same characteristic to the same value
+     */
+    public boolean hasSameEffect(WriteCharacteristicCommand other) {
+        return characteristicUUID.equals(other.characteristicUUID)
+                && switchState == other.switchState
+                && Arrays.equals(bytesToUpload, other.bytesToUpload);
+    }
+
     public enum SwitchState {
         ENABLE, DISABLE, NONE
     }
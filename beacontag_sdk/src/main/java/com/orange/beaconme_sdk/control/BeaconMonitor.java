@@ -24,14 +24,45 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.widget.Toast;
 
 import com.orange.beaconme_sdk.ble.control.BLEDeviceManager;
-import com.orange.beaconme_sdk.ble.control.BLEDeviceScanner;
+import com.orange.beaconme_sdk.ble.control.ScanSchedule;
+import com.orange.beaconme_sdk.ble.model.BLERange;
 import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
 import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
+import com.orange.beaconme_sdk.ble.utils.GattUtils;
+import com.orange.beaconme_sdk.control.analytics.DwellAnalytics;
+import com.orange.beaconme_sdk.control.detection_handlers.AreaHandler;
 import com.orange.beaconme_sdk.control.detection_handlers.DetectionHandlerFactory;
 import com.orange.beaconme_sdk.control.detection_handlers.TagDetectionHandler;
 import com.orange.beaconme_sdk.control.model.BeaconSettings;
+import com.orange.beaconme_sdk.control.rules.RuleEngine;
+import com.orange.beaconme_sdk.control.storage.DetectionJournal;
+import com.orange.beaconme_sdk.control.storage.HandlerState;
+import com.orange.beaconme_sdk.control.storage.RegistrationStore;
+import com.orange.beaconme_sdk.control.storage.StoredRegistration;
+import com.orange.beaconme_sdk.control.stream.DetectionEvent;
+import com.orange.beaconme_sdk.control.stream.Publisher;
+import com.orange.beaconme_sdk.control.stream.RangeEvent;
+import com.orange.beaconme_sdk.control.stream.StreamPublisher;
+import com.orange.beaconme_sdk.control.stream.TriggerEvent;
+import com.orange.beaconme_sdk.control.stream.UpdateEvent;
+import com.orange.beaconme_sdk.control.time.Clock;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -49,30 +80,118 @@ public class BeaconMonitor {
      */
     public static final String DEVICE_FOOTPRINT_TAG = "Device Footprint Tag";
 
+    /**
+     * When a rule added to the rule engine fires, broadcast with RULE_EVENT_ACTION as an action
+     * will be send, with the DeviceFootprint under DEVICE_FOOTPRINT_TAG key and the rule id under
+     * RULE_ID_TAG key.
+     */
+    public static final String RULE_EVENT_ACTION = "com.orange.beaconme_sdk.action.RULE_EVENT";
+
+    public static final String RULE_ID_TAG = "Rule Id Tag";
+
+    private static final String REGISTRATION_STORE_FILE = "beacon_registrations.bin";
+
+    /**
+     * Stored time of the last detection is refreshed when it is older by this time, so visible
+     * beacons don't cause a write of the registration store on every detection.
+     */
+    private static final long STATE_CHECKPOINT_INTERVAL = 10 * 1000;
+    /**
+     * Max difference of two wall times computed from the same elapsed time.
+     */
+    private static final long WALL_TIME_TOLERANCE = 1000;
+
     private static BeaconMonitor instance;
-    
-    private TagDetectionHandler.OnTriggerFiredListener triggerListener =
-            new TagDetectionHandler.OnTriggerFiredListener() {
+
+    /**
+     * Clock of the detection logic, the default clock at the time the monitor was created.
+     */
+    private final Clock clock = Clock.getDefault();
+
+    private final RegistrationStore registrationStore;
+
+    private volatile BeaconUpdatedCallback defaultUpdateCallback;
+
+    private volatile DetectionJournal journal;
+
+    private final DwellAnalytics dwellAnalytics = new DwellAnalytics(clock);
+
+    private final BeaconStateStore stateStore = new BeaconStateStore(clock);
+
+    private final ProximityIndex proximityIndex = new ProximityIndex(clock);
+
+    private final PositionEstimator positionEstimator = new PositionEstimator();
+    private final DetectionSampler detectionSampler = new DetectionSampler();
+
+    private final StreamPublisher<DetectionEvent> detections = new StreamPublisher<>();
+    private final StreamPublisher<RangeEvent> rangeChanges = new StreamPublisher<>();
+    private final StreamPublisher<TriggerEvent> triggers = new StreamPublisher<>();
+    private final StreamPublisher<UpdateEvent> updates = new StreamPublisher<>();
+
+    private final RuleEngine ruleEngine = new RuleEngine(new RuleEngine.OnRuleFiredListener() {
         @Override
-        public void onFired(DeviceFootprint footprint) {
-            alertDetection(footprint);
+        public void onRuleFired(String ruleId, DeviceFootprint footprint) {
+            alertRule(ruleId, footprint);
+        }
+    }, clock);
+
+    /**
+     * Range changes of area handlers are passed to analytics and rules.
+     */
+    private final AreaHandler.OnRangeChangedListener rangeChangedListener =
+            new AreaHandler.OnRangeChangedListener() {
+        @Override
+        public void onRangeChanged(DeviceFootprint footprint, BLERange oldRange, BLERange newRange) {
+            dwellAnalytics.onRangeChanged(footprint, oldRange, newRange);
+            ruleEngine.onRangeChanged(footprint, oldRange, newRange);
+            BeaconRegistration registration = registrations.get(footprint);
+            if (registration != null) {
+                saveHandlerState(registration);
+            }
+            if (rangeChanges.hasSubscribers()) {
+                rangeChanges.publish(new RangeEvent(footprint, oldRange, newRange));
+            }
         }
     };
     
-    private final ConcurrentHashMap<DeviceFootprint, TagDetectionHandler> tagsOnDetection
-            = new ConcurrentHashMap<>();
+    private TagDetectionHandler.OnTriggerFiredListener triggerListener = new TriggerListener();
 
+    private volatile TriggerRateLimiter triggerRateLimiter;
+    private final AtomicLong sentTriggers = new AtomicLong();
+    private final AtomicLong suppressedByCooldown = new AtomicLong();
+    private final AtomicLong suppressedByRateLimit = new AtomicLong();
+    
+    /**
+     * Registered beacons. Bulk operations build a new map and replace the whole registry at once,
+     * so detections are always dispatched either to the old or to the new set of registrations.
+     * All changes are done under registryLock.
+     */
+    private volatile ConcurrentHashMap<DeviceFootprint, BeaconRegistration> registrations
+            = new ConcurrentHashMap<>();
+    /**
+     * Index of region registrations, rebuilt from the registry whenever a region is added or
+     * removed.
+     */
+    private volatile RegionIndex regionIndex = RegionIndex.EMPTY;
+    private final Object registryLock = new Object();
+    private final ExecutorService registryExecutor = Executors.newSingleThreadExecutor();
 
-    private final ConcurrentHashMap<DeviceFootprint, BeaconUpdatedCallback> updateCallbacks =
-            new ConcurrentHashMap<>();
     private BroadcastReceiver deviceUpdatedReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             DeviceFootprint footprint = (DeviceFootprint) intent.getSerializableExtra(
                     BLEDeviceManager.FOOTPRING_TAG);
-            if (updateCallbacks.containsKey(footprint)) {
-                updateCallbacks.get(footprint).onBeaconUpdated(footprint.getUuid(),
-                        footprint.getMajor(), footprint.getMinor());
+            if (updates.hasSubscribers()) {
+                updates.publish(new UpdateEvent(footprint));
+            }
+            BeaconRegistration registration = registrations.get(footprint);
+            BeaconUpdatedCallback callback = registration != null ? registration.getCallback() : null;
+            if (callback == null) {
+                callback = defaultUpdateCallback;
+            }
+            if (callback != null) {
+                callback.onBeaconUpdated(footprint.getUuid(), footprint.getMajor(),
+                        footprint.getMinor());
             }
         }
     };
@@ -83,11 +202,49 @@ public class BeaconMonitor {
      * @return initialized instance of Beacon Monitor
      */
     public static BeaconMonitor init(Context context) {
+        return init(context, false);
+    }
+
+    /**
+     * Initialize the Beacon Monitor
+     * @param context Application Context
+     * @param persistRegistrations if true, registrations are stored in application files and
+     *                             restored on the next initialization, so beacons registered
+     *                             before the process was killed are detected without registering
+     *                             them again. Restored beacons are set up on their first detection.
+     *                             Detection state, i.e. current range of the beacon and time of
+     *                             its last trigger, is stored as well, so a beacon visible across
+     *                             the restart doesn't enter its area again and its cooldown holds.
+     * @return initialized instance of Beacon Monitor
+     */
+    public static BeaconMonitor init(Context context, boolean persistRegistrations) {
+        return init(context, persistRegistrations, null);
+    }
+
+    /**
+     * Initialize the Beacon Monitor with given clock. Detection windows, timeouts and rules are
+     * measured with the clock, so a VirtualClock can replay detections faster than real time.
+     * The clock becomes the default one, which is used by detections created by the scanner.
+     * @param context Application Context
+     * @param persistRegistrations if true, registrations are stored and restored on the next
+     *                             initialization, together with their detection state
+     * @param clock clock of the detection logic, null for the system clock
+     * @return initialized instance of Beacon Monitor
+     */
+    public static BeaconMonitor init(Context context, boolean persistRegistrations, Clock clock) {
+        Clock.setDefault(clock);
         BLEDeviceManager.init(context);
-        instance = new BeaconMonitor(context);
+        instance = new BeaconMonitor(context, persistRegistrations);
         return instance;
     }
 
+    /**
+     * @return clock of the detection logic
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
     /**
      * Return an instance of Beacon Monitor if it was initialized, null else.
      * @return instance of Beacon Monitor
@@ -98,10 +255,26 @@ public class BeaconMonitor {
 
     private Context context;
 
-    private BeaconMonitor(Context context) {
+    private BeaconMonitor(Context context, boolean persistRegistrations) {
         this.context = context;
         LocalBroadcastManager.getInstance(context).registerReceiver(deviceUpdatedReceiver,
                 new IntentFilter(BLEDeviceManager.ACTION_DEVICE_UPDATED));
+        if (persistRegistrations) {
+            registrationStore = new RegistrationStore(new File(context.getFilesDir(),
+                    REGISTRATION_STORE_FILE));
+            registrationStore.load();
+            for (DeviceFootprint footprint : registrationStore.getFootprints()) {
+                if (footprint.isWildcard()) {
+                    restoreRegistration(footprint);
+                }
+            }
+            updateScanFilters();
+            if (!registrationStore.isEmpty()) {
+                startScan();
+            }
+        } else {
+            registrationStore = null;
+        }
     }
 
     /**
@@ -111,25 +284,377 @@ public class BeaconMonitor {
      * TRIGGER_EVENT_ACTION action will be send, with a DeviceFootprint in extras under
      * DEVICE_FOOTPRINT_TAG key.
      *
+     * Settings created with BeaconSettings.forRegion() register a region: all beacons with
+     * the same uuid, or uuid and major. Event of a region is triggered with the footprint of the
+     * region, which has DeviceFootprint.ANY in place of major or minor. Devices of a region are
+     * not reconfigured.
+     *
      * @param settings device settings to detect.
      * @param callback will be invoked when device will be updated
+     * @return registration of the beacon, which can be used to update or release it
      */
-    public void registerForBeaconDetection(BeaconSettings settings, BeaconUpdatedCallback callback) {
+    public BeaconRegistration registerForBeaconDetection(BeaconSettings settings,
+                                                         BeaconUpdatedCallback callback) {
         DeviceFootprint footprint = settings.getDeviceFootprint();
-        if (tagsOnDetection.contains(footprint)) {
-            unregisterForBeaconDetection(footprint);
+        List<WriteCharacteristicCommand> commands = commandsFor(settings);
+        synchronized (registryLock) {
+            boolean wasEmpty = isRegistryEmpty();
+            BeaconRegistration previous = registrations.get(footprint);
+            BeaconRegistration registration = createRegistration(settings, callback, previous);
+            registrations.put(footprint, registration);
+            if (previous != null) {
+                release(previous, registration);
+            }
+            if (footprint.isWildcard()) {
+                updateRegionIndex();
+            }
+            BLEDeviceManager.getInstance().addDeviceForDetection(footprint, commands);
+            if (registrationStore != null) {
+                registrationStore.put(settings, commands);
+            }
+            Set<String> filters = BLEDeviceManager.getInstance().getScanFilters();
+            if (filters == null || !filters.contains(footprint.getUuid().toLowerCase())) {
+                updateScanFilters();
+            }
+            onRegistryChanged(wasEmpty);
+            return registration;
         }
+    }
 
-        if (tagsOnDetection.isEmpty()) {
+    /**
+     * Register several beacons for detection at once. Configuration commands are computed in
+     * background and all beacons are added to the registry in a single step. Beacons which are
+     * already registered are replaced, their detection state is kept if area settings are
+     * unchanged.
+     *
+     * @param settings settings of the beacons to detect
+     * @param callback will be invoked when any of the devices will be updated, may be null
+     * @return future which completes when beacons are registered
+     */
+    public Future<?> registerAll(Collection<BeaconSettings> settings,
+                                 final BeaconUpdatedCallback callback) {
+        final List<BeaconSettings> settingsList = new ArrayList<>(settings);
+        return registryExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Map<DeviceFootprint, List<WriteCharacteristicCommand>> configurations =
+                        computeCommands(settingsList);
+                synchronized (registryLock) {
+                    boolean wasEmpty = isRegistryEmpty();
+                    ConcurrentHashMap<DeviceFootprint, BeaconRegistration> current = registrations;
+                    ConcurrentHashMap<DeviceFootprint, BeaconRegistration> next =
+                            new ConcurrentHashMap<>(current);
+                    for (BeaconSettings item : settingsList) {
+                        DeviceFootprint footprint = item.getDeviceFootprint();
+                        BeaconRegistration previous = current.get(footprint);
+                        next.put(footprint, createRegistration(item, callback, previous));
+                    }
+                    commitRegistry(current, next);
+                    BLEDeviceManager.getInstance().addDevicesForDetection(configurations);
+                    if (registrationStore != null) {
+                        for (BeaconSettings item : settingsList) {
+                            registrationStore.put(item, configurations.get(item.getDeviceFootprint()));
+                        }
+                    }
+                    updateScanFilters();
+                    onRegistryChanged(wasEmpty);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove several beacons from detection at once.
+     *
+     * @param footprints footprints of the beacons which no longer should be detected
+     * @return future which completes when beacons are unregistered
+     */
+    public Future<?> unregisterAll(Collection<DeviceFootprint> footprints) {
+        final List<DeviceFootprint> footprintList = new ArrayList<>(footprints);
+        return registryExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (registryLock) {
+                    boolean wasEmpty = isRegistryEmpty();
+                    ConcurrentHashMap<DeviceFootprint, BeaconRegistration> current = registrations;
+                    ConcurrentHashMap<DeviceFootprint, BeaconRegistration> next =
+                            new ConcurrentHashMap<>(current);
+                    next.keySet().removeAll(footprintList);
+                    commitRegistry(current, next);
+                    BLEDeviceManager.getInstance().removeDevicesForDetection(footprintList);
+                    for (DeviceFootprint footprint : getDroppedBeacons(footprintList)) {
+                        stateStore.remove(footprint);
+                        proximityIndex.remove(footprint);
+                        positionEstimator.remove(footprint);
+                        detectionSampler.remove(footprint);
+                    }
+                    if (registrationStore != null) {
+                        for (DeviceFootprint footprint : footprintList) {
+                            registrationStore.remove(footprint);
+                        }
+                    }
+                    updateScanFilters();
+                    onRegistryChanged(wasEmpty);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replace all registered beacons with given ones, e.g. to synchronize registrations with
+     * a list of beacons received from a server. Beacons which are not in the given settings are
+     * removed from detection, beacons which are registered already keep their detection state
+     * if area settings are unchanged.
+     *
+     * @param settings settings of the beacons to detect
+     * @param callback will be invoked when any of the devices will be updated, may be null
+     * @return future which completes when registry is replaced
+     */
+    public Future<?> replaceAll(Collection<BeaconSettings> settings,
+                                final BeaconUpdatedCallback callback) {
+        final List<BeaconSettings> settingsList = new ArrayList<>(settings);
+        return registryExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Map<DeviceFootprint, List<WriteCharacteristicCommand>> configurations =
+                        computeCommands(settingsList);
+                synchronized (registryLock) {
+                    boolean wasEmpty = isRegistryEmpty();
+                    ConcurrentHashMap<DeviceFootprint, BeaconRegistration> current = registrations;
+                    ConcurrentHashMap<DeviceFootprint, BeaconRegistration> next =
+                            new ConcurrentHashMap<>();
+                    for (BeaconSettings item : settingsList) {
+                        DeviceFootprint footprint = item.getDeviceFootprint();
+                        next.put(footprint, createRegistration(item, callback,
+                                current.get(footprint)));
+                    }
+                    commitRegistry(current, next);
+                    Set<DeviceFootprint> removed = new HashSet<>(current.keySet());
+                    removed.removeAll(next.keySet());
+                    for (DeviceFootprint footprint : getDroppedBeacons(removed)) {
+                        stateStore.remove(footprint);
+                        proximityIndex.remove(footprint);
+                        positionEstimator.remove(footprint);
+                        detectionSampler.remove(footprint);
+                    }
+                    BLEDeviceManager.getInstance().setDevicesForDetection(configurations);
+                    if (registrationStore != null) {
+                        registrationStore.clear();
+                        for (BeaconSettings item : settingsList) {
+                            registrationStore.put(item, configurations.get(item.getDeviceFootprint()));
+                        }
+                    }
+                    updateScanFilters();
+                    onRegistryChanged(wasEmpty);
+                }
+            }
+        });
+    }
+
+    /**
+     * Find beacons whose detection state has to be dropped once given registrations were removed:
+     * removed beacons and detected members of removed regions, unless a remaining registration
+     * still matches them. Must be called under registryLock, after the registry was updated.
+     * @param removed footprints of removed registrations
+     * @return footprints of beacons to forget
+     */
+    private Set<DeviceFootprint> getDroppedBeacons(Collection<DeviceFootprint> removed) {
+        Set<DeviceFootprint> dropped = new HashSet<>();
+        List<DeviceFootprint> regions = new ArrayList<>();
+        for (DeviceFootprint footprint : removed) {
+            if (footprint.isWildcard()) {
+                regions.add(footprint);
+            } else if (!isMonitored(footprint)) {
+                dropped.add(footprint);
+            }
+        }
+        if (!regions.isEmpty()) {
+            for (BeaconState state : stateStore.getAll()) {
+                DeviceFootprint member = state.getFootprint();
+                for (DeviceFootprint region : regions) {
+                    if (region.matches(member) && !isMonitored(member)) {
+                        dropped.add(member);
+                        break;
+                    }
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * @return true if beacon is registered or belongs to a registered region
+     */
+    private boolean isMonitored(DeviceFootprint footprint) {
+        return registrations.containsKey(footprint) || regionIndex.lookup(footprint) != null;
+    }
+
+    private static Map<DeviceFootprint, List<WriteCharacteristicCommand>> computeCommands(
+            List<BeaconSettings> settingsList) {
+        Map<DeviceFootprint, List<WriteCharacteristicCommand>> configurations = new HashMap<>();
+        for (BeaconSettings item : settingsList) {
+            configurations.put(item.getDeviceFootprint(), commandsFor(item));
+        }
+        return configurations;
+    }
+
+    /**
+     * @return configuration commands for the beacon, empty for a region since its devices
+     * are not known in advance
+     */
+    private static List<WriteCharacteristicCommand> commandsFor(BeaconSettings settings) {
+        if (settings.getDeviceFootprint().isWildcard()) {
+            return Collections.emptyList();
+        }
+        return GattUtils.beaconSettingsToCommands(settings);
+    }
+
+    /**
+     * Create registration, reusing detection handler of the previous registration of the same
+     * beacon if its area settings and range model are unchanged.
+     */
+    private BeaconRegistration createRegistration(BeaconSettings settings,
+                                                  BeaconUpdatedCallback callback,
+                                                  BeaconRegistration previous) {
+        TagDetectionHandler handler;
+        if (previous != null && previous.getHandler() != null
+                && previous.getSettings().getAreaSettings() == settings.getAreaSettings()
+                && previous.getSettings().getRangeModel().equals(settings.getRangeModel())) {
+            handler = previous.getHandler();
+            handler.setCooldown(settings.getTriggerCooldown());
+            if (handler instanceof AreaHandler) {
+                ((AreaHandler) handler).setHysteresis(settings.getRangeHysteresis());
+            }
+        } else {
+            handler = createHandler(settings);
+            if (previous == null) {
+                restoreHandlerState(handler);
+            }
+        }
+        return new BeaconRegistration(this, settings, handler, callback);
+    }
+
+    private TagDetectionHandler createHandler(BeaconSettings settings) {
+        TagDetectionHandler handler = DetectionHandlerFactory.getHandler(settings,
+                triggerListener);
+        handler.setClock(clock);
+        if (handler instanceof AreaHandler) {
+            ((AreaHandler) handler).setOnRangeChangedListener(rangeChangedListener);
+        }
+        return handler;
+    }
+
+    /**
+     * Publish new registry and release registrations which were replaced or removed.
+     * Must be called under registryLock.
+     */
+    private void commitRegistry(Map<DeviceFootprint, BeaconRegistration> current,
+                                ConcurrentHashMap<DeviceFootprint, BeaconRegistration> next) {
+        registrations = next;
+        updateRegionIndex();
+        for (Map.Entry<DeviceFootprint, BeaconRegistration> entry : current.entrySet()) {
+            BeaconRegistration replacement = next.get(entry.getKey());
+            if (replacement != entry.getValue()) {
+                release(entry.getValue(), replacement);
+            }
+        }
+    }
+
+    /**
+     * Rebuild index of regions from the current registry. Must be called under registryLock.
+     */
+    private void updateRegionIndex() {
+        regionIndex = new RegionIndex(registrations.values());
+    }
+
+    /**
+     * Let the scanner pass to the detection pipeline only beacons with registered uuids,
+     * including uuids of stored registrations which were not restored yet.
+     * Must be called under registryLock.
+     */
+    private void updateScanFilters() {
+        Set<String> uuids = new HashSet<>();
+        for (DeviceFootprint footprint : registrations.keySet()) {
+            uuids.add(footprint.getUuid());
+        }
+        if (registrationStore != null) {
+            for (DeviceFootprint footprint : registrationStore.getFootprints()) {
+                uuids.add(footprint.getUuid());
+            }
+        }
+        BLEDeviceManager.getInstance().setScanFilters(uuids);
+    }
+
+    /**
+     * Start scanning if first beacon was registered, stop it if last beacon was unregistered.
+     * Must be called under registryLock.
+     * @param wasEmpty whether registry was empty before the change
+     */
+    private void onRegistryChanged(boolean wasEmpty) {
+        boolean empty = isRegistryEmpty();
+        if (wasEmpty && !empty) {
             startScan();
+        } else if (!wasEmpty && empty) {
+            stopScan();
         }
-        TagDetectionHandler handler = DetectionHandlerFactory.getHandler(footprint,
-                triggerListener, settings.getAreaSettings());
-        if (handler != null) {
-            tagsOnDetection.put(footprint, handler);
+    }
+
+    /**
+     * Deactivate replaced or removed registration and stop its handler unless the handler is
+     * reused by the replacement.
+     * @param registration registration which is no longer in the registry
+     * @param replacement new registration of the same beacon, null if beacon was unregistered
+     */
+    private void release(BeaconRegistration registration, BeaconRegistration replacement) {
+        registration.deactivate();
+        TagDetectionHandler handler = registration.getHandler();
+        TagDetectionHandler next = replacement != null ? replacement.getHandler() : null;
+        if (handler == null || handler == next) {
+            return;
+        }
+        if (handler instanceof AreaHandler && next instanceof AreaHandler) {
+            ((AreaHandler) handler).replaceWith((AreaHandler) next);
+        } else {
+            handler.deactivate();
         }
-        updateCallbacks.put(footprint, callback);
-        BLEDeviceManager.getInstance().addDeviceForDetection(settings);
+    }
+
+    /**
+     * Sends triggers of detection handlers and counts triggers suppressed by their cooldown.
+     */
+    private class TriggerListener implements TagDetectionHandler.OnTriggerFiredListener,
+            TagDetectionHandler.OnTriggerSuppressedListener {
+        @Override
+        public void onFired(DeviceFootprint footprint) {
+            alertDetection(footprint);
+        }
+
+        @Override
+        public void onSuppressed(DeviceFootprint footprint) {
+            suppressedByCooldown.incrementAndGet();
+        }
+    }
+
+    private boolean isRegistryEmpty() {
+        return registrations.isEmpty() && (registrationStore == null || registrationStore.isEmpty());
+    }
+
+    /**
+     * Set callback to be invoked when a beacon registered without its own callback is updated,
+     * e.g. beacon restored from stored registrations.
+     * @param callback will be invoked when device will be updated
+     */
+    public void setBeaconUpdatedCallback(BeaconUpdatedCallback callback) {
+        defaultUpdateCallback = callback;
+    }
+
+    /**
+     * Set how scanning is run while beacons are registered: continuously, in a foreground
+     * service, in periodic jobs or on duty cycle alarms.
+     * @param schedule scan schedule
+     */
+    public void setScanSchedule(ScanSchedule schedule) {
+        BLEDeviceManager.getInstance().setScanSchedule(schedule);
     }
 
     /**
@@ -138,20 +663,391 @@ public class BeaconMonitor {
      */
     public void onDetect(IBeaconDetect detection) {
         DeviceFootprint footprint = detection.getFootprint();
-        if (tagsOnDetection.containsKey(footprint)) {
-            tagsOnDetection.get(footprint).onDetect(detection);
+        BeaconRegistration registration = registrations.get(footprint);
+        if (registration == null && registrationStore != null
+                && registrationStore.contains(footprint)) {
+            registration = restoreRegistration(footprint);
+        }
+        RegionIndex regions = regionIndex;
+        List<BeaconRegistration> regionRegistrations =
+                regions.isEmpty() ? null : regions.lookup(footprint);
+        if (registration == null && regionRegistrations == null) {
+            return;
         }
+        DetectionJournal journal = this.journal;
+        if (journal != null) {
+            journal.appendDetection(detection);
+        }
+        if (detections.hasSubscribers()) {
+            detections.publish(new DetectionEvent(detection));
+        }
+        BeaconSettings settings = registration != null ? registration.getSettings()
+                : regionRegistrations.get(0).getSettings();
+        detection = detectionSampler.admit(detection,
+                getMaxDetectionRate(registration, regionRegistrations));
+        if (detection == null) {
+            return;
+        }
+        BeaconState state = stateStore.update(detection, settings.getRangeModel());
+        proximityIndex.update(state);
+        if (registration != null && settings.isPositionEnabled()) {
+            positionEstimator.update(footprint, settings.getPositionX(), settings.getPositionY(),
+                    settings.getRangeModel().getDistance(state.getTxPower(),
+                            Math.round(state.getFilteredRssi())), state.getLastSeen());
+        }
+        if (registration != null) {
+            dispatch(registration, detection);
+            saveHandlerState(registration);
+        }
+        if (regionRegistrations != null) {
+            for (BeaconRegistration regionRegistration : regionRegistrations) {
+                dispatch(regionRegistration, detection);
+                saveHandlerState(regionRegistration);
+            }
+        }
+    }
+
+    /**
+     * Store detection state of a persisted registration if it changed. Times are stored as wall
+     * times, which survive a reboot of the device unlike elapsed times.
+     */
+    private void saveHandlerState(BeaconRegistration registration) {
+        TagDetectionHandler handler = registration.getHandler();
+        if (registrationStore == null || handler == null) {
+            return;
+        }
+        BLERange range = null;
+        long lastDetection = 0;
+        if (handler instanceof AreaHandler) {
+            range = ((AreaHandler) handler).getRange();
+            if (range != null) {
+                lastDetection = toWallTime(((AreaHandler) handler).getLastDetectionTime());
+            }
+        }
+        long lastFired = handler.getLastFiredTime();
+        lastFired = lastFired >= 0 ? toWallTime(lastFired) : 0;
+        HandlerState stored = registrationStore.getState(registration.getFootprint());
+        if (stored != null && stored.getRange() == range
+                && Math.abs(stored.getLastFiredTime() - lastFired) < WALL_TIME_TOLERANCE
+                && Math.abs(stored.getLastDetectionTime() - lastDetection)
+                        < STATE_CHECKPOINT_INTERVAL) {
+            return;
+        }
+        registrationStore.putState(registration.getFootprint(),
+                new HandlerState(range, lastDetection, lastFired));
+    }
+
+    /**
+     * Set stored detection state on a new handler, with wall times rebased to elapsed time.
+     */
+    private void restoreHandlerState(TagDetectionHandler handler) {
+        HandlerState state = registrationStore != null
+                ? registrationStore.getState(handler.getFootprint()) : null;
+        if (state == null) {
+            return;
+        }
+        if (state.getLastFiredTime() != 0) {
+            handler.restoreLastFiredTime(toElapsedTime(state.getLastFiredTime()));
+        }
+        if (handler instanceof AreaHandler && state.getRange() != null) {
+            ((AreaHandler) handler).restoreRange(state.getRange(),
+                    toElapsedTime(state.getLastDetectionTime()));
+        }
+    }
+
+    private long toWallTime(long elapsedTime) {
+        return clock.currentTimeMillis() - (clock.elapsedRealtime() - elapsedTime);
+    }
+
+    /**
+     * Wall time in the future, e.g. after the wall clock was set back, is taken as now.
+     */
+    private long toElapsedTime(long wallTime) {
+        return clock.elapsedRealtime() - Math.max(0, clock.currentTimeMillis() - wallTime);
+    }
+
+    /**
+     * All handlers of the beacon get the same sampled detections, so the beacon is sampled at
+     * the highest rate of its registrations, not at all if any of them processes all detections.
+     */
+    private static int getMaxDetectionRate(BeaconRegistration registration,
+                                           List<BeaconRegistration> regionRegistrations) {
+        int maxRate = registration != null ? registration.getSettings().getMaxDetectionRate()
+                : regionRegistrations.get(0).getSettings().getMaxDetectionRate();
+        if (regionRegistrations != null) {
+            for (int i = 0; i < regionRegistrations.size() && maxRate > 0; i++) {
+                int rate = regionRegistrations.get(i).getSettings().getMaxDetectionRate();
+                maxRate = rate == 0 ? 0 : Math.max(maxRate, rate);
+            }
+        }
+        return maxRate;
+    }
+
+    private void dispatch(BeaconRegistration registration, IBeaconDetect detection) {
+        if (registration.getHandler() != null) {
+            registration.getHandler().onDetect(detection);
+        }
+    }
+
+    /**
+     * Set up detection handler and device configuration for a registration restored from
+     * the registration store.
+     * @param footprint footprint of the stored registration
+     * @return restored registration, null if registration can't be restored
+     */
+    private BeaconRegistration restoreRegistration(DeviceFootprint footprint) {
+        synchronized (registryLock) {
+            BeaconRegistration registration = registrations.get(footprint);
+            if (registration != null) {
+                return registration;
+            }
+            StoredRegistration stored = registrationStore.get(footprint);
+            if (stored == null) {
+                return null;
+            }
+            TagDetectionHandler handler = createHandler(stored.getSettings());
+            restoreHandlerState(handler);
+            registration = new BeaconRegistration(this, stored.getSettings(), handler, null);
+            registrations.put(footprint, registration);
+            if (footprint.isWildcard()) {
+                updateRegionIndex();
+            } else {
+                BLEDeviceManager.getInstance().addDeviceForDetection(footprint, stored.getCommands());
+            }
+            return registration;
+        }
+    }
+
+    /**
+     * Start journaling detections of registered beacons and triggered events into segment files
+     * in given directory. If journal is already enabled, it will be closed and replaced.
+     * @param directory directory for journal segments, e.g. new File(context.getFilesDir(), "journal")
+     * @return opened journal, which can be used to read stored records
+     * @throws IOException if journal can't be opened in given directory
+     */
+    public DetectionJournal enableJournal(File directory) throws IOException {
+        return enableJournal(new DetectionJournal(directory));
+    }
+
+    /**
+     * Start journaling detections of registered beacons and triggered events into provided
+     * journal. If journal is already enabled, it will be closed and replaced.
+     * @param journal journal to append records to
+     * @return provided journal
+     */
+    public DetectionJournal enableJournal(DetectionJournal journal) {
+        DetectionJournal previous = this.journal;
+        this.journal = journal;
+        if (previous != null && previous != journal) {
+            previous.close();
+        }
+        return journal;
+    }
+
+    /**
+     * Stop journaling and close the journal if it was enabled.
+     */
+    public void disableJournal() {
+        DetectionJournal previous = journal;
+        journal = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * @return currently enabled journal, null if journaling is disabled
+     */
+    public DetectionJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Dwell time, visit counts and occupancy of registered beacons, maintained from their range
+     * changes. Set a summary listener on it to receive aggregated statistics periodically.
+     * @return dwell analytics of the monitor
+     */
+    public DwellAnalytics getDwellAnalytics() {
+        return dwellAnalytics;
     }
 
     /**
-     * Remove beacon from detection.
+     * Limit number of trigger broadcasts of all beacons. Up to burst triggers are sent at once,
+     * then at most perSecond triggers per second; triggers beyond the limit are dropped.
+     * Use BeaconSettings.setTriggerCooldown() to limit triggers of a single beacon.
+     * @param burst max number of triggers sent at once
+     * @param perSecond sustained number of triggers per second
+     */
+    public void setTriggerRateLimit(int burst, double perSecond) {
+        triggerRateLimiter = new TriggerRateLimiter(burst, perSecond, clock);
+    }
+
+    /**
+     * Send all triggers without rate limit (default).
+     */
+    public void removeTriggerRateLimit() {
+        triggerRateLimiter = null;
+    }
+
+    /**
+     * @return counters of sent and suppressed triggers
+     */
+    public TriggerStats getTriggerStats() {
+        return new TriggerStats(sentTriggers.get(), suppressedByCooldown.get(),
+                suppressedByRateLimit.get());
+    }
+
+    /**
+     * @return number of detections folded into processed ones by max detection rates of
+     * the registrations
+     */
+    public long getSampledOutCount() {
+        return detectionSampler.getSampledOutCount();
+    }
+
+    /**
+     * Latest state of every detected beacon, which can be read from any thread without locking,
+     * e.g. to show a live list of beacons.
+     * @return beacon state store
+     */
+    public BeaconStateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * Visible beacons ordered by proximity, e.g. to find the nearest beacon for indoor
+     * navigation.
+     * @return proximity index
+     */
+    public ProximityIndex getProximityIndex() {
+        return proximityIndex;
+    }
+
+    /**
+     * Position of the phone estimated from distances to beacons registered with their position,
+     * see BeaconSettings.setPosition(). At least three beacons must be visible.
+     * @return position estimator
+     */
+    public PositionEstimator getPositionEstimator() {
+        return positionEstimator;
+    }
+
+    /**
+     * Stream of detections of registered beacons, including beacons of registered regions.
+     * All received detections are published, also those sampled out by the max detection rate.
+     * @return detection publisher
+     */
+    public Publisher<DetectionEvent> getDetections() {
+        return detections;
+    }
+
+    /**
+     * Stream of range changes of registered beacons and regions.
+     * @return range change publisher
+     */
+    public Publisher<RangeEvent> getRangeChanges() {
+        return rangeChanges;
+    }
+
+    /**
+     * Stream of events triggered by area settings of registrations and by rules, published
+     * along with their broadcasts. Triggers suppressed by throttling are not published.
+     * @return trigger publisher
+     */
+    public Publisher<TriggerEvent> getTriggers() {
+        return triggers;
+    }
+
+    /**
+     * Stream of beacons updated with configuration of their registrations.
+     * @return update publisher
+     */
+    public Publisher<UpdateEvent> getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Engine evaluating rules on range changes of registered beacons and regions. Rules
+     * referring to beacons which are not registered never fire. Events are sent as broadcasts
+     * with RULE_EVENT_ACTION.
+     * @return rule engine of the monitor
+     */
+    public RuleEngine getRuleEngine() {
+        return ruleEngine;
+    }
+
+    /**
+     * Remove beacon from detection. Its timers are stopped and pending configuration of
+     * the device is cancelled. Scanning stops once no beacon is registered.
      * @param footprint unifies device which no longer should be detected.
+     * @return true if beacon was registered
      */
-    private void unregisterForBeaconDetection(DeviceFootprint footprint) {
-        if (tagsOnDetection.containsKey(footprint)) {
-            tagsOnDetection.remove(footprint).deactivate();
-            updateCallbacks.remove(footprint);
+    public boolean unregisterForBeaconDetection(DeviceFootprint footprint) {
+        synchronized (registryLock) {
+            BeaconRegistration registration = registrations.remove(footprint);
+            boolean stored = registrationStore != null && registrationStore.contains(footprint);
+            if (registration == null && !stored) {
+                return false;
+            }
+            if (registration != null) {
+                release(registration, null);
+            }
+            if (footprint.isWildcard()) {
+                updateRegionIndex();
+            }
+            if (registrationStore != null) {
+                registrationStore.remove(footprint);
+            }
             BLEDeviceManager.getInstance().removeDeviceForDetection(footprint);
+            for (DeviceFootprint dropped : getDroppedBeacons(Collections.singleton(footprint))) {
+                stateStore.remove(dropped);
+                proximityIndex.remove(dropped);
+                positionEstimator.remove(dropped);
+                detectionSampler.remove(dropped);
+            }
+            updateScanFilters();
+            if (isRegistryEmpty()) {
+                stopScan();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Remove beacon from detection if given registration is still the active one.
+     * @param registration registration to release
+     */
+    void unregister(BeaconRegistration registration) {
+        synchronized (registryLock) {
+            if (registrations.get(registration.getFootprint()) == registration) {
+                unregisterForBeaconDetection(registration.getFootprint());
+            }
+        }
+    }
+
+    /**
+     * Unregister all beacons and stop scanning. Stored registrations are removed as well.
+     * Beacon Monitor can be used again by registering new beacons.
+     */
+    public void stop() {
+        synchronized (registryLock) {
+            ConcurrentHashMap<DeviceFootprint, BeaconRegistration> current = registrations;
+            registrations = new ConcurrentHashMap<>();
+            regionIndex = RegionIndex.EMPTY;
+            for (BeaconRegistration registration : current.values()) {
+                release(registration, null);
+            }
+            BLEDeviceManager.getInstance().setDevicesForDetection(
+                    new HashMap<DeviceFootprint, List<WriteCharacteristicCommand>>());
+            if (registrationStore != null) {
+                registrationStore.clear();
+            }
+            stateStore.clear();
+            proximityIndex.clear();
+            positionEstimator.clear();
+            detectionSampler.clear();
+            updateScanFilters();
+            stopScan();
         }
     }
 
@@ -165,18 +1061,45 @@ public class BeaconMonitor {
             enableBtIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             context.startActivity(enableBtIntent);
         } else {
-            context.sendBroadcast(new Intent(BLEDeviceScanner.START_SCAN_SERVICE_ACTION));
+            BLEDeviceManager.getInstance().startScanner();
         }
     }
 
+    private void stopScan() {
+        BLEDeviceManager.getInstance().stopScanner();
+    }
+
     /**
      * Send broadcast with TRIGGER_EVENT_ACTION as an action and DeviceFootprint in extra under
      * DEVICE_FOOTPRINT_TAG key. Notifies all broadcastReceivers when event is triggered.
      * @param footprint DeviceFootprint to send broadcast with
      */
     private void alertDetection(DeviceFootprint footprint) {
+        TriggerRateLimiter rateLimiter = triggerRateLimiter;
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+            suppressedByRateLimit.incrementAndGet();
+            return;
+        }
+        sentTriggers.incrementAndGet();
+        DetectionJournal journal = this.journal;
+        if (journal != null) {
+            journal.appendTrigger(footprint);
+        }
+        if (triggers.hasSubscribers()) {
+            triggers.publish(new TriggerEvent(footprint, null));
+        }
         Intent event = new Intent(TRIGGER_EVENT_ACTION);
         event.putExtra(DEVICE_FOOTPRINT_TAG, footprint);
         context.sendBroadcast(event);
     }
+
+    private void alertRule(String ruleId, DeviceFootprint footprint) {
+        if (triggers.hasSubscribers()) {
+            triggers.publish(new TriggerEvent(footprint, ruleId));
+        }
+        Intent event = new Intent(RULE_EVENT_ACTION);
+        event.putExtra(DEVICE_FOOTPRINT_TAG, footprint);
+        event.putExtra(RULE_ID_TAG, ruleId);
+        context.sendBroadcast(event);
+    }
 }
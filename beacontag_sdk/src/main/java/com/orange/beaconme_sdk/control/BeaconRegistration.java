@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.detection_handlers.TagDetectionHandler;
+import com.orange.beaconme_sdk.control.model.BeaconSettings;
+
+/**
+ * Handle of a beacon registered in BeaconMonitor. Registration stays active until it is
+ * released, replaced by a new registration of the same beacon, or BeaconMonitor is stopped.
+ */
+public class BeaconRegistration {
+    private final BeaconMonitor monitor;
+    private final BeaconSettings settings;
+    private final TagDetectionHandler handler;
+    private final BeaconUpdatedCallback callback;
+
+    private volatile boolean active = true;
+
+    BeaconRegistration(BeaconMonitor monitor, BeaconSettings settings, TagDetectionHandler handler,
+                       BeaconUpdatedCallback callback) {
+        this.monitor = monitor;
+        this.settings = settings;
+        this.handler = handler;
+        this.callback = callback;
+    }
+
+    public DeviceFootprint getFootprint() {
+        return settings.getDeviceFootprint();
+    }
+
+    public BeaconSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return true if beacon is still registered with this registration
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Replace settings of the registered beacon. This registration becomes inactive and
+     * the returned one should be used instead. Detection state is kept if area settings
+     * are unchanged.
+     * @param settings new settings, must have the same footprint as the registered beacon
+     * @return new registration of the beacon
+     */
+    public BeaconRegistration update(BeaconSettings settings) {
+        if (!settings.getDeviceFootprint().equals(getFootprint())) {
+            throw new IllegalArgumentException("Settings are for another beacon");
+        }
+        if (!active) {
+            throw new IllegalStateException("Registration was released");
+        }
+        return monitor.registerForBeaconDetection(settings, callback);
+    }
+
+    /**
+     * Remove beacon from detection, stop its timers and pending configuration. Does nothing if
+     * registration is already inactive.
+     */
+    public void release() {
+        if (active) {
+            monitor.unregister(this);
+        }
+    }
+
+    TagDetectionHandler getHandler() {
+        return handler;
+    }
+
+    BeaconUpdatedCallback getCallback() {
+        return callback;
+    }
+
+    void deactivate() {
+        active = false;
+    }
+}
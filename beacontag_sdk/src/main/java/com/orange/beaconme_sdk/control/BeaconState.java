@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.EddystoneTelemetry;
+
+/**
+ * Latest known state of a detected beacon. Instances are immutable, every detection publishes
+ * a new state.
+ */
+public class BeaconState {
+
+    private final DeviceFootprint footprint;
+    private final float filteredRssi;
+    private final int rssi;
+    private final int txPower;
+    private final BLERange range;
+    private final long lastSeen;
+    private final long detectionCount;
+    private final EddystoneTelemetry telemetry;
+
+    BeaconState(DeviceFootprint footprint, float filteredRssi, int rssi, int txPower,
+                BLERange range, long lastSeen, long detectionCount, EddystoneTelemetry telemetry) {
+        this.footprint = footprint;
+        this.filteredRssi = filteredRssi;
+        this.rssi = rssi;
+        this.txPower = txPower;
+        this.range = range;
+        this.lastSeen = lastSeen;
+        this.detectionCount = detectionCount;
+        this.telemetry = telemetry;
+    }
+
+    public DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * @return received signal strength smoothed over recent detections
+     */
+    public float getFilteredRssi() {
+        return filteredRssi;
+    }
+
+    /**
+     * @return received signal strength of the last detection
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    public int getTxPower() {
+        return txPower;
+    }
+
+    /**
+     * @return range of the filtered signal strength according to the range model of the
+     * registration
+     */
+    public BLERange getRange() {
+        return range;
+    }
+
+    /**
+     * @return time of the last detection, in Clock.elapsedRealtime() milliseconds
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public long getDetectionCount() {
+        return detectionCount;
+    }
+
+    /**
+     * @return latest telemetry of the beacon, null if it doesn't send telemetry
+     */
+    public EddystoneTelemetry getTelemetry() {
+        return telemetry;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.EddystoneTelemetry;
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.ble.model.RangeModel;
+import com.orange.beaconme_sdk.control.time.Clock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latest state of every detected beacon, conflating detections into a single value per
+ * footprint. Detections are written by the detection pipeline one at a time; readers, e.g.
+ * UI threads, never lock. Every beacon has a slot in an array which is copied only when
+ * a beacon is added or removed, a detection replaces the state in its slot.
+ */
+public class BeaconStateStore {
+
+    /**
+     * Weight of a new detection in the filtered signal strength.
+     */
+    private static final float RSSI_FILTER_WEIGHT = 0.25f;
+
+    /**
+     * States not updated for this time are dropped when slots are copied.
+     */
+    private static final long EXPIRY = 5 * 60 * 1000;
+
+    private static final Slots EMPTY = new Slots(Collections.<DeviceFootprint, Integer>emptyMap(),
+            new AtomicReferenceArray<BeaconState>(0));
+
+    private volatile Slots slots = EMPTY;
+    private volatile long version;
+
+    private final Object writeLock = new Object();
+    private final Clock clock;
+
+    public BeaconStateStore() {
+        this(Clock.getDefault());
+    }
+
+    /**
+     * @param clock clock of the detection times
+     */
+    public BeaconStateStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param footprint footprint of the beacon
+     * @return latest state of the beacon, null if it was not detected
+     */
+    public BeaconState get(DeviceFootprint footprint) {
+        Slots current = slots;
+        Integer slot = current.index.get(footprint);
+        return slot != null ? current.states.get(slot) : null;
+    }
+
+    /**
+     * @return latest states of all detected beacons
+     */
+    public List<BeaconState> getAll() {
+        AtomicReferenceArray<BeaconState> states = slots.states;
+        List<BeaconState> all = new ArrayList<>(states.length());
+        for (int i = 0; i < states.length(); i++) {
+            all.add(states.get(i));
+        }
+        return all;
+    }
+
+    /**
+     * @param maxAge max time since the last detection in milliseconds
+     * @return latest states of beacons detected within given time
+     */
+    public List<BeaconState> getVisible(long maxAge) {
+        long oldest = clock.elapsedRealtime() - maxAge;
+        AtomicReferenceArray<BeaconState> states = slots.states;
+        List<BeaconState> visible = new ArrayList<>();
+        for (int i = 0; i < states.length(); i++) {
+            BeaconState state = states.get(i);
+            if (state.getLastSeen() >= oldest) {
+                visible.add(state);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Version is incremented with every change of the store, so a reader can skip refreshing
+     * when version is unchanged.
+     * @return current version of the store
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Conflate detection into the state of its beacon.
+     * @param detection detection of a registered beacon
+     * @param rangeModel range model of the registration
+     * @return new state of the beacon
+     */
+    BeaconState update(IBeaconDetect detection, RangeModel rangeModel) {
+        DeviceFootprint footprint = detection.getFootprint();
+        long now = detection.getElapsedTime();
+        synchronized (writeLock) {
+            Slots current = slots;
+            Integer slot = current.index.get(footprint);
+            BeaconState previous = slot != null ? current.states.get(slot) : null;
+
+            float filteredRssi = detection.getRssi();
+            long count = 1;
+            EddystoneTelemetry telemetry = detection.getTelemetry();
+            if (previous != null) {
+                filteredRssi = previous.getFilteredRssi()
+                        + RSSI_FILTER_WEIGHT * (detection.getRssi() - previous.getFilteredRssi());
+                count = previous.getDetectionCount() + 1;
+                if (telemetry == null) {
+                    telemetry = previous.getTelemetry();
+                }
+            }
+            BeaconState state = new BeaconState(footprint, filteredRssi, detection.getRssi(),
+                    detection.getTxPower(),
+                    rangeModel.getRange(detection.getTxPower(), Math.round(filteredRssi)),
+                    now, count, telemetry);
+            if (slot != null) {
+                current.states.set(slot, state);
+            } else {
+                slots = current.copy(footprint, state, now - EXPIRY, null);
+            }
+            version++;
+            return state;
+        }
+    }
+
+    /**
+     * @param footprint footprint of the beacon to drop
+     */
+    void remove(DeviceFootprint footprint) {
+        synchronized (writeLock) {
+            Slots current = slots;
+            if (current.index.containsKey(footprint)) {
+                slots = current.copy(null, null, 0, footprint);
+                version++;
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (writeLock) {
+            slots = EMPTY;
+            version++;
+        }
+    }
+
+    /**
+     * Index of footprints to slots with the slots. Index is never modified once published.
+     */
+    private static class Slots {
+
+        final Map<DeviceFootprint, Integer> index;
+        final AtomicReferenceArray<BeaconState> states;
+
+        Slots(Map<DeviceFootprint, Integer> index, AtomicReferenceArray<BeaconState> states) {
+            this.index = index;
+            this.states = states;
+        }
+
+        /**
+         * Copy slots, adding a state and dropping expired and removed states.
+         */
+        Slots copy(DeviceFootprint added, BeaconState addedState, long expiredBefore,
+                   DeviceFootprint removed) {
+            List<BeaconState> kept = new ArrayList<>(states.length() + 1);
+            for (int i = 0; i < states.length(); i++) {
+                BeaconState state = states.get(i);
+                if (state.getLastSeen() >= expiredBefore
+                        && !state.getFootprint().equals(removed)) {
+                    kept.add(state);
+                }
+            }
+            if (added != null) {
+                kept.add(addedState);
+            }
+            Map<DeviceFootprint, Integer> newIndex = new HashMap<>();
+            AtomicReferenceArray<BeaconState> newStates =
+                    new AtomicReferenceArray<>(kept.size());
+            for (int i = 0; i < kept.size(); i++) {
+                newIndex.put(kept.get(i).getFootprint(), i);
+                newStates.set(i, kept.get(i));
+            }
+            return new Slots(newIndex, newStates);
+        }
+    }
+}
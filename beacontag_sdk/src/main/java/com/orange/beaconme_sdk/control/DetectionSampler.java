@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.ble.model.SampledDetect;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission of detections to the detection pipeline, capping the number of detections of each
+ * beacon processed per second. Detections received between two admitted ones are folded into
+ * the next admitted detection as its average and max signal strength, so work done by detection
+ * handlers depends on the number of beacons, not on their advertising rate.
+ */
+class DetectionSampler {
+
+    private final ConcurrentMap<DeviceFootprint, Interval> intervals = new ConcurrentHashMap<>();
+    private final AtomicLong sampledOut = new AtomicLong();
+
+    /**
+     * @param detection received detection
+     * @param maxRate max number of detections of the beacon admitted per second, 0 admits all
+     * @return detection to process, null if detection is folded into the next admitted one
+     */
+    IBeaconDetect admit(IBeaconDetect detection, int maxRate) {
+        if (maxRate <= 0) {
+            return detection;
+        }
+        DeviceFootprint footprint = detection.getFootprint();
+        Interval interval = intervals.get(footprint);
+        if (interval == null) {
+            Interval created = new Interval();
+            interval = intervals.putIfAbsent(footprint, created);
+            if (interval == null) {
+                interval = created;
+            }
+        }
+        IBeaconDetect admitted = interval.add(detection, detection.getElapsedTime(),
+                1000 / maxRate);
+        if (admitted == null) {
+            sampledOut.incrementAndGet();
+        }
+        return admitted;
+    }
+
+    /**
+     * @return number of detections folded into admitted ones
+     */
+    long getSampledOutCount() {
+        return sampledOut.get();
+    }
+
+    void remove(DeviceFootprint footprint) {
+        intervals.remove(footprint);
+    }
+
+    void clear() {
+        intervals.clear();
+    }
+
+    private static class Interval {
+        private boolean admitted;
+        private long lastAdmitted;
+        private int count;
+        private long rssiSum;
+        private int maxRssi;
+
+        synchronized IBeaconDetect add(IBeaconDetect detection, long now, long period) {
+            int rssi = detection.getRssi();
+            maxRssi = count == 0 ? rssi : Math.max(maxRssi, rssi);
+            rssiSum += rssi;
+            count++;
+            if (admitted && now - lastAdmitted < period) {
+                return null;
+            }
+            IBeaconDetect sample = count == 1 ? detection : new SampledDetect(detection,
+                    Math.round((float) rssiSum / count), maxRssi, count);
+            admitted = true;
+            lastAdmitted = now;
+            count = 0;
+            rssiSum = 0;
+            return sample;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+/**
+ * Estimated position of the phone in the coordinate system of beacon positions.
+ */
+public class Position {
+
+    private final double x;
+    private final double y;
+    private final double accuracy;
+    private final int beaconCount;
+    private final long time;
+
+    Position(double x, double y, double accuracy, int beaconCount, long time) {
+        this.x = x;
+        this.y = y;
+        this.accuracy = accuracy;
+        this.beaconCount = beaconCount;
+        this.time = time;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * @return weighted root mean square difference between estimated and measured distances to
+     * the beacons, in units of beacon coordinates
+     */
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @return number of beacons the position was estimated from
+     */
+    public int getBeaconCount() {
+        return beaconCount;
+    }
+
+    /**
+     * @return time of the estimate, in Clock.elapsedRealtime() milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Estimates position of the phone from distances to visible beacons with known positions.
+ * Every detection of such a beacon updates its distance and recomputes the estimate by
+ * weighted least squares over beacons detected recently: a linearized solution refined by
+ * a few Gauss-Newton iterations, closer beacons having more weight. Work per detection is
+ * bounded by MAX_BEACONS and the math runs on preallocated arrays.
+ */
+public class PositionEstimator {
+
+    /**
+     * Max number of beacons used for positioning, further beacons are ignored until a slot
+     * expires.
+     */
+    public static final int MAX_BEACONS = 32;
+
+    private static final int MIN_BEACONS = 3;
+    private static final int ITERATIONS = 5;
+    private static final double CONVERGENCE = 1e-3;
+    private static final double MIN_DISTANCE = 0.1;
+
+    /**
+     * Distances older than this time are not used.
+     */
+    private static final long MAX_AGE = 10 * 1000;
+
+    private final Map<DeviceFootprint, Integer> slots = new HashMap<>();
+    private final DeviceFootprint[] footprints = new DeviceFootprint[MAX_BEACONS];
+    private final double[] beaconX = new double[MAX_BEACONS];
+    private final double[] beaconY = new double[MAX_BEACONS];
+    private final double[] distances = new double[MAX_BEACONS];
+    private final long[] lastSeen = new long[MAX_BEACONS];
+
+    /**
+     * Slots of beacons used by the current estimate.
+     */
+    private final int[] used = new int[MAX_BEACONS];
+
+    private volatile Position position;
+
+    private OnPositionChangedListener listener;
+    private Executor listenerExecutor;
+
+    /**
+     * @return latest estimated position, null if not enough beacons were visible yet
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * @param listener listener notified with every new estimate, null to stop notifications
+     * @param executor executor the listener is invoked on
+     */
+    public synchronized void setOnPositionChangedListener(OnPositionChangedListener listener,
+                                                          Executor executor) {
+        if (listener != null && executor == null) {
+            throw new IllegalArgumentException("Executor is required");
+        }
+        this.listener = listener;
+        listenerExecutor = executor;
+    }
+
+    /**
+     * Update distance to a beacon and recompute the position.
+     * @param footprint footprint of the beacon
+     * @param x x coordinate of the beacon
+     * @param y y coordinate of the beacon
+     * @param distance estimated distance to the beacon
+     * @param time time of the detection, in Clock.elapsedRealtime() milliseconds
+     */
+    void update(DeviceFootprint footprint, double x, double y, double distance, long time) {
+        final Position estimate;
+        final OnPositionChangedListener listener;
+        Executor executor;
+        synchronized (this) {
+            Integer slot = slots.get(footprint);
+            if (slot == null) {
+                slot = allocateSlot(footprint, time);
+                if (slot == null) {
+                    return;
+                }
+            }
+            beaconX[slot] = x;
+            beaconY[slot] = y;
+            distances[slot] = Math.max(distance, MIN_DISTANCE);
+            lastSeen[slot] = time;
+
+            estimate = estimate(time);
+            if (estimate == null) {
+                return;
+            }
+            position = estimate;
+            listener = this.listener;
+            executor = listenerExecutor;
+        }
+        if (listener != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onPositionChanged(estimate);
+                }
+            });
+        }
+    }
+
+    synchronized void remove(DeviceFootprint footprint) {
+        Integer slot = slots.remove(footprint);
+        if (slot != null) {
+            footprints[slot] = null;
+        }
+    }
+
+    synchronized void clear() {
+        slots.clear();
+        for (int i = 0; i < MAX_BEACONS; i++) {
+            footprints[i] = null;
+        }
+        position = null;
+    }
+
+    /**
+     * Must be called under lock.
+     * @return free or expired slot, null if all slots are in use
+     */
+    private Integer allocateSlot(DeviceFootprint footprint, long now) {
+        for (int i = 0; i < MAX_BEACONS; i++) {
+            if (footprints[i] == null || now - lastSeen[i] > MAX_AGE) {
+                if (footprints[i] != null) {
+                    slots.remove(footprints[i]);
+                }
+                footprints[i] = footprint;
+                Integer slot = i;
+                slots.put(footprint, slot);
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called under lock.
+     * @return new estimate, null if less than MIN_BEACONS recent distances are known
+     */
+    private Position estimate(long now) {
+        int count = 0;
+        int nearest = -1;
+        for (int i = 0; i < MAX_BEACONS; i++) {
+            if (footprints[i] != null && now - lastSeen[i] <= MAX_AGE) {
+                used[count++] = i;
+                if (nearest < 0 || distances[i] < distances[nearest]) {
+                    nearest = i;
+                }
+            }
+        }
+        if (count < MIN_BEACONS) {
+            return null;
+        }
+
+        // Linearize by subtracting the circle of the nearest beacon and solve weighted normal
+        // equations of the resulting 2x2 system
+        double x0 = beaconX[nearest];
+        double y0 = beaconY[nearest];
+        double d0 = distances[nearest];
+        double a11 = 0, a12 = 0, a22 = 0, b1 = 0, b2 = 0;
+        for (int k = 0; k < count; k++) {
+            int i = used[k];
+            if (i == nearest) {
+                continue;
+            }
+            double ax = 2 * (beaconX[i] - x0);
+            double ay = 2 * (beaconY[i] - y0);
+            double b = d0 * d0 - distances[i] * distances[i]
+                    + beaconX[i] * beaconX[i] - x0 * x0 + beaconY[i] * beaconY[i] - y0 * y0;
+            double w = 1 / (distances[i] * distances[i]);
+            a11 += w * ax * ax;
+            a12 += w * ax * ay;
+            a22 += w * ay * ay;
+            b1 += w * ax * b;
+            b2 += w * ay * b;
+        }
+        double determinant = a11 * a22 - a12 * a12;
+        if (Math.abs(determinant) < 1e-12) {
+            // Beacons are collinear, position is ambiguous
+            return null;
+        }
+        double x = (a22 * b1 - a12 * b2) / determinant;
+        double y = (a11 * b2 - a12 * b1) / determinant;
+
+        // Refine by minimizing weighted squared differences of distances
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            double h11 = 0, h12 = 0, h22 = 0, g1 = 0, g2 = 0;
+            for (int k = 0; k < count; k++) {
+                int i = used[k];
+                double dx = x - beaconX[i];
+                double dy = y - beaconY[i];
+                double range = Math.max(Math.sqrt(dx * dx + dy * dy), MIN_DISTANCE);
+                double jx = dx / range;
+                double jy = dy / range;
+                double residual = range - distances[i];
+                double w = 1 / (distances[i] * distances[i]);
+                h11 += w * jx * jx;
+                h12 += w * jx * jy;
+                h22 += w * jy * jy;
+                g1 += w * jx * residual;
+                g2 += w * jy * residual;
+            }
+            double det = h11 * h22 - h12 * h12;
+            if (Math.abs(det) < 1e-12) {
+                break;
+            }
+            double stepX = (h22 * g1 - h12 * g2) / det;
+            double stepY = (h11 * g2 - h12 * g1) / det;
+            x -= stepX;
+            y -= stepY;
+            if (stepX * stepX + stepY * stepY < CONVERGENCE * CONVERGENCE) {
+                break;
+            }
+        }
+
+        double squares = 0, weights = 0;
+        for (int k = 0; k < count; k++) {
+            int i = used[k];
+            double dx = x - beaconX[i];
+            double dy = y - beaconY[i];
+            double residual = Math.sqrt(dx * dx + dy * dy) - distances[i];
+            double w = 1 / (distances[i] * distances[i]);
+            squares += w * residual * residual;
+            weights += w;
+        }
+        return new Position(x, y, Math.sqrt(squares / weights), count, now);
+    }
+
+    public interface OnPositionChangedListener {
+        void onPositionChanged(Position position);
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.time.Clock;
+import com.orange.beaconme_sdk.control.time.ScheduledTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Visible beacons ordered by proximity. Beacons are kept in buckets of their path loss
+ * (tx power minus filtered signal strength) in dB, so a detection moves its beacon between
+ * buckets in constant time and the nearest K beacons are read by walking the buckets from the
+ * lowest path loss.
+ */
+public class ProximityIndex {
+
+    private static final int BUCKETS = 128;
+
+    /**
+     * Beacons not detected for this time are not visible anymore.
+     */
+    private static final long VISIBILITY_TIMEOUT = 30 * 1000;
+
+    private final Node[] heads = new Node[BUCKETS];
+    private final Map<DeviceFootprint, Node> nodes = new HashMap<>();
+
+    private OnRankingChangedListener listener;
+    private Executor listenerExecutor;
+    private int watchedCount;
+    private DeviceFootprint[] ranking = new DeviceFootprint[0];
+    private int rankingSize;
+    private DeviceFootprint[] candidate = new DeviceFootprint[0];
+    private ScheduledTask expiryCheck;
+    private final Clock clock;
+
+    public ProximityIndex() {
+        this(Clock.getDefault());
+    }
+
+    /**
+     * @param clock clock of the detection times of indexed states
+     */
+    public ProximityIndex(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param count max number of beacons to return, at least 1
+     * @return visible beacons ordered from the nearest one
+     */
+    public synchronized List<BeaconState> getNearest(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        List<BeaconState> nearest = new ArrayList<>(Math.min(count, nodes.size()));
+        long visibleSince = clock.elapsedRealtime() - VISIBILITY_TIMEOUT;
+        for (int bucket = 0; bucket < BUCKETS && nearest.size() < count; bucket++) {
+            Node node = heads[bucket];
+            while (node != null && nearest.size() < count) {
+                Node next = node.next;
+                if (node.state.getLastSeen() < visibleSince) {
+                    remove(node);
+                } else {
+                    nearest.add(node.state);
+                }
+                node = next;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * @return the nearest visible beacon, null if no beacon is visible
+     */
+    public BeaconState getNearest() {
+        List<BeaconState> nearest = getNearest(1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * Notify listener whenever the order of the nearest beacons changes. Ranking is checked on
+     * detections which can change it and when a ranked beacon is not visible anymore, changes
+     * of signal strength within the same dB do not affect it.
+     * @param listener listener to notify, null to stop notifications
+     * @param count number of the nearest beacons to watch
+     * @param executor executor the listener is invoked on
+     */
+    public synchronized void setOnRankingChangedListener(OnRankingChangedListener listener,
+                                                         int count, Executor executor) {
+        if (listener != null && (count < 1 || executor == null)) {
+            throw new IllegalArgumentException("Invalid ranking listener");
+        }
+        this.listener = listener;
+        listenerExecutor = executor;
+        watchedCount = listener != null ? count : 0;
+        ranking = new DeviceFootprint[watchedCount];
+        candidate = new DeviceFootprint[watchedCount];
+        rankingSize = 0;
+        cancelExpiryCheck();
+    }
+
+    /**
+     * Move beacon to the bucket of its new state.
+     * @param state new state of the beacon
+     */
+    void update(BeaconState state) {
+        List<BeaconState> changedRanking = null;
+        final OnRankingChangedListener listener;
+        Executor executor;
+        synchronized (this) {
+            int bucket = bucketOf(state);
+            Node node = nodes.get(state.getFootprint());
+            boolean moved;
+            if (node == null) {
+                node = new Node(state, bucket);
+                nodes.put(state.getFootprint(), node);
+                link(node);
+                moved = true;
+            } else {
+                node.state = state;
+                moved = node.bucket != bucket;
+                if (moved) {
+                    unlink(node);
+                    node.bucket = bucket;
+                    link(node);
+                }
+            }
+            if (moved && watchedCount > 0 && affectsRanking(node)) {
+                changedRanking = checkRanking();
+            }
+            listener = this.listener;
+            executor = listenerExecutor;
+        }
+        notifyRankingChanged(changedRanking, listener, executor);
+    }
+
+    /**
+     * Re-check the ranking if some of the ranked beacons is not visible anymore, detections of
+     * the other beacons do not have to come meanwhile.
+     */
+    private void checkExpiry() {
+        List<BeaconState> changedRanking = null;
+        OnRankingChangedListener listener;
+        Executor executor;
+        synchronized (this) {
+            expiryCheck = null;
+            if (watchedCount == 0) {
+                return;
+            }
+            if (getRankingExpiry() <= clock.elapsedRealtime()) {
+                changedRanking = checkRanking();
+            }
+            if (expiryCheck == null) {
+                scheduleExpiryCheck();
+            }
+            listener = this.listener;
+            executor = listenerExecutor;
+        }
+        notifyRankingChanged(changedRanking, listener, executor);
+    }
+
+    private static void notifyRankingChanged(List<BeaconState> changedRanking,
+                                             final OnRankingChangedListener listener,
+                                             Executor executor) {
+        if (changedRanking != null) {
+            final List<BeaconState> nearest = Collections.unmodifiableList(changedRanking);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onRankingChanged(nearest);
+                }
+            });
+        }
+    }
+
+    synchronized void remove(DeviceFootprint footprint) {
+        Node node = nodes.get(footprint);
+        if (node != null) {
+            remove(node);
+            cancelExpiryCheck();
+            scheduleExpiryCheck();
+        }
+    }
+
+    synchronized void clear() {
+        nodes.clear();
+        for (int i = 0; i < BUCKETS; i++) {
+            heads[i] = null;
+        }
+        rankingSize = 0;
+        cancelExpiryCheck();
+    }
+
+    private static int bucketOf(BeaconState state) {
+        int pathLoss = Math.round(state.getTxPower() - state.getFilteredRssi());
+        return Math.max(0, Math.min(BUCKETS - 1, pathLoss));
+    }
+
+    /**
+     * Must be called under lock.
+     */
+    private boolean affectsRanking(Node node) {
+        if (rankingSize < watchedCount) {
+            return true;
+        }
+        DeviceFootprint footprint = node.state.getFootprint();
+        for (int i = 0; i < rankingSize; i++) {
+            if (ranking[i].equals(footprint)) {
+                return true;
+            }
+        }
+        Node last = nodes.get(ranking[rankingSize - 1]);
+        return last == null || node.bucket <= last.bucket;
+    }
+
+    /**
+     * Compare current nearest beacons with the last ranking. Must be called under lock.
+     * @return new ranking if it changed, null else
+     */
+    private List<BeaconState> checkRanking() {
+        long visibleSince = clock.elapsedRealtime() - VISIBILITY_TIMEOUT;
+        int size = 0;
+        for (int bucket = 0; bucket < BUCKETS && size < watchedCount; bucket++) {
+            Node node = heads[bucket];
+            while (node != null && size < watchedCount) {
+                Node next = node.next;
+                if (node.state.getLastSeen() < visibleSince) {
+                    remove(node);
+                } else {
+                    candidate[size++] = node.state.getFootprint();
+                }
+                node = next;
+            }
+        }
+        boolean changed = size != rankingSize;
+        for (int i = 0; i < size && !changed; i++) {
+            changed = !candidate[i].equals(ranking[i]);
+        }
+        if (!changed) {
+            return null;
+        }
+        DeviceFootprint[] previous = ranking;
+        ranking = candidate;
+        candidate = previous;
+        rankingSize = size;
+        if (expiryCheck == null) {
+            scheduleExpiryCheck();
+        }
+
+        List<BeaconState> nearest = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            nearest.add(nodes.get(ranking[i]).state);
+        }
+        return nearest;
+    }
+
+    /**
+     * Must be called under lock.
+     * @return time when the first of the ranked beacons is not visible anymore
+     */
+    private long getRankingExpiry() {
+        long expiry = Long.MAX_VALUE;
+        for (int i = 0; i < rankingSize; i++) {
+            Node node = nodes.get(ranking[i]);
+            if (node == null) {
+                return Long.MIN_VALUE;
+            }
+            expiry = Math.min(expiry, node.state.getLastSeen() + VISIBILITY_TIMEOUT);
+        }
+        return expiry;
+    }
+
+    /**
+     * Schedule check of the ranking when its first beacon expires, detections move the expiry
+     * so the check is just rescheduled when it comes too early. Must be called under lock.
+     */
+    private void scheduleExpiryCheck() {
+        if (rankingSize == 0) {
+            return;
+        }
+        long expiry = getRankingExpiry();
+        long now = clock.elapsedRealtime();
+        long delay = expiry > now ? expiry - now + 1 : 0;
+        expiryCheck = clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkExpiry();
+            }
+        }, delay);
+    }
+
+    /**
+     * Must be called under lock.
+     */
+    private void cancelExpiryCheck() {
+        if (expiryCheck != null) {
+            expiryCheck.cancel();
+            expiryCheck = null;
+        }
+    }
+
+    private void remove(Node node) {
+        unlink(node);
+        nodes.remove(node.state.getFootprint());
+    }
+
+    private void link(Node node) {
+        Node head = heads[node.bucket];
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        heads[node.bucket] = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            heads[node.bucket] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static class Node {
+        BeaconState state;
+        int bucket;
+        Node prev;
+        Node next;
+
+        Node(BeaconState state, int bucket) {
+            this.state = state;
+            this.bucket = bucket;
+        }
+    }
+
+    public interface OnRankingChangedListener {
+        /**
+         * @param nearest watched number of the nearest beacons, ordered from the nearest one
+         */
+        void onRankingChanged(List<BeaconState> nearest);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of region registrations, i.e. registrations whose footprint has ANY major or
+ * minor. Regions are indexed by uuid, then major, then minor, so detection is matched against
+ * at most four buckets regardless of the number of regions.
+ */
+class RegionIndex {
+
+    static final RegionIndex EMPTY =
+            new RegionIndex(Collections.<BeaconRegistration>emptyList());
+
+    private final Map<String, Map<Integer, Map<Integer, BeaconRegistration>>> index =
+            new HashMap<>();
+
+    /**
+     * @param registrations registrations to index, those without wildcards are skipped
+     */
+    RegionIndex(Collection<BeaconRegistration> registrations) {
+        for (BeaconRegistration registration : registrations) {
+            DeviceFootprint footprint = registration.getFootprint();
+            if (!footprint.isWildcard()) {
+                continue;
+            }
+            String uuid = footprint.getUuid().toLowerCase();
+            Map<Integer, Map<Integer, BeaconRegistration>> majors = index.get(uuid);
+            if (majors == null) {
+                majors = new HashMap<>();
+                index.put(uuid, majors);
+            }
+            Map<Integer, BeaconRegistration> minors = majors.get(footprint.getMajor());
+            if (minors == null) {
+                minors = new HashMap<>();
+                majors.put(footprint.getMajor(), minors);
+            }
+            minors.put(footprint.getMinor(), registration);
+        }
+    }
+
+    boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * Find regions the detected device belongs to.
+     * @param footprint footprint of the detected device
+     * @return matching region registrations, null if there are none
+     */
+    List<BeaconRegistration> lookup(DeviceFootprint footprint) {
+        Map<Integer, Map<Integer, BeaconRegistration>> majors = index.get(footprint.getUuid());
+        if (majors == null) {
+            return null;
+        }
+        List<BeaconRegistration> result = null;
+        result = collect(majors.get(footprint.getMajor()), footprint.getMinor(), result);
+        result = collect(majors.get(DeviceFootprint.ANY), footprint.getMinor(), result);
+        return result;
+    }
+
+    private static List<BeaconRegistration> collect(Map<Integer, BeaconRegistration> minors,
+                                                    int minor, List<BeaconRegistration> result) {
+        if (minors == null) {
+            return result;
+        }
+        result = add(minors.get(minor), result);
+        return add(minors.get(DeviceFootprint.ANY), result);
+    }
+
+    private static List<BeaconRegistration> add(BeaconRegistration registration,
+                                                List<BeaconRegistration> result) {
+        if (registration == null) {
+            return result;
+        }
+        if (result == null) {
+            result = new ArrayList<>(2);
+        }
+        result.add(registration);
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.control.time.Clock;
+
+/**
+ * Token bucket limiting rate of trigger events sent by the monitor. Bucket holds up to burst
+ * tokens and is refilled at given rate, every event takes one token.
+ */
+class TriggerRateLimiter {
+
+    private final Clock clock;
+    private final int burst;
+    private final double tokensPerMilli;
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param burst max number of events sent at once
+     * @param perSecond sustained number of events per second
+     * @param clock clock measuring refill of the bucket
+     */
+    TriggerRateLimiter(int burst, double perSecond, Clock clock) {
+        if (burst < 1 || perSecond <= 0) {
+            throw new IllegalArgumentException("Invalid rate limit: " + burst + ", " + perSecond);
+        }
+        this.clock = clock;
+        this.burst = burst;
+        this.tokensPerMilli = perSecond / 1000;
+        tokens = burst;
+        lastRefill = clock.elapsedRealtime();
+    }
+
+    /**
+     * @return true if event can be sent, false if it exceeds the limit
+     */
+    synchronized boolean tryAcquire() {
+        long now = clock.elapsedRealtime();
+        if (now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerMilli);
+            lastRefill = now;
+        }
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
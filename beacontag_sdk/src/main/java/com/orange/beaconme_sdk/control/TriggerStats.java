@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+/**
+ * Counters of trigger events since the monitor was initialized.
+ */
+public class TriggerStats {
+
+    private final long sent;
+    private final long suppressedByCooldown;
+    private final long suppressedByRateLimit;
+
+    TriggerStats(long sent, long suppressedByCooldown, long suppressedByRateLimit) {
+        this.sent = sent;
+        this.suppressedByCooldown = suppressedByCooldown;
+        this.suppressedByRateLimit = suppressedByRateLimit;
+    }
+
+    /**
+     * @return number of trigger broadcasts sent
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return number of triggers suppressed by cooldown of their beacon
+     */
+    public long getSuppressedByCooldown() {
+        return suppressedByCooldown;
+    }
+
+    /**
+     * @return number of triggers suppressed by the global rate limit
+     */
+    public long getSuppressedByRateLimit() {
+        return suppressedByRateLimit;
+    }
+}
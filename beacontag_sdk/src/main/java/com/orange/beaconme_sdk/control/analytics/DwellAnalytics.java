@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.analytics;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.detection_handlers.AreaHandler;
+import com.orange.beaconme_sdk.control.time.Clock;
+import com.orange.beaconme_sdk.control.time.ScheduledTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maintains dwell time, visit counts and occupancy of monitored beacons from range transitions
+ * of their area handlers. Every transition is accounted in constant time; statistics are read
+ * as snapshots or received as periodic summaries.
+ */
+public class DwellAnalytics implements AreaHandler.OnRangeChangedListener {
+
+    private static final BLERange[] RANGES = BLERange.values();
+
+    private final ConcurrentMap<DeviceFootprint, DwellState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Beacons which were visible since the last summary.
+     */
+    private final Set<DwellState> active =
+            Collections.newSetFromMap(new ConcurrentHashMap<DwellState, Boolean>());
+
+    private final AtomicInteger occupancy = new AtomicInteger();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Clock clock;
+
+    private DwellSummaryListener summaryListener;
+    private long summaryInterval;
+    private Runnable summaryTask;
+    private ScheduledTask summarySchedule;
+    private long periodStart;
+
+    public DwellAnalytics() {
+        this(Clock.getDefault());
+    }
+
+    /**
+     * @param clock clock measuring dwell times and summary periods
+     */
+    public DwellAnalytics(Clock clock) {
+        this.clock = clock;
+        periodStart = clock.currentTimeMillis();
+    }
+
+    @Override
+    public void onRangeChanged(DeviceFootprint footprint, BLERange oldRange, BLERange newRange) {
+        DwellState state = states.get(footprint);
+        if (state == null) {
+            DwellState created = new DwellState(footprint);
+            state = states.putIfAbsent(footprint, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        long now = clock.elapsedRealtime();
+        synchronized (state) {
+            boolean wasPresent = state.range != null;
+            state.moveTo(newRange, now);
+            if (!wasPresent && newRange != null) {
+                occupancy.incrementAndGet();
+                active.add(state);
+            } else if (wasPresent && newRange == null) {
+                occupancy.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return number of beacons currently visible
+     */
+    public int getOccupancy() {
+        return occupancy.get();
+    }
+
+    /**
+     * @param footprint footprint of the beacon
+     * @return statistics of the beacon, null if it was never visible
+     */
+    public DwellSnapshot getSnapshot(DeviceFootprint footprint) {
+        DwellState state = states.get(footprint);
+        return state != null ? state.snapshot(clock.elapsedRealtime(), clock.currentTimeMillis())
+                : null;
+    }
+
+    /**
+     * @return statistics of all beacons which were visible at least once
+     */
+    public List<DwellSnapshot> getSnapshots() {
+        long now = clock.elapsedRealtime();
+        long time = clock.currentTimeMillis();
+        List<DwellSnapshot> snapshots = new ArrayList<>(states.size());
+        for (DwellState state : states.values()) {
+            snapshots.add(state.snapshot(now, time));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Deliver summary of the elapsed period to the listener every interval. Summaries contain
+     * beacons which were visible during the period only.
+     * @param listener summary listener, null stops summaries
+     * @param interval summary period in milliseconds
+     */
+    public synchronized void setSummaryListener(DwellSummaryListener listener, long interval) {
+        if (listener != null && interval <= 0) {
+            throw new IllegalArgumentException("Invalid summary interval: " + interval);
+        }
+        if (summarySchedule != null) {
+            summarySchedule.cancel();
+            summarySchedule = null;
+        }
+        summaryListener = listener;
+        summaryInterval = interval;
+        summaryTask = null;
+        if (listener != null) {
+            summaryTask = getSummaryTask();
+            summarySchedule = clock.schedule(summaryTask, interval);
+        }
+    }
+
+    /**
+     * Make task which summarizes the period on the clock and delivers the summary on the main
+     * thread, then schedules itself for the next period.
+     */
+    private Runnable getSummaryTask() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                final DwellSummaryListener listener;
+                synchronized (DwellAnalytics.this) {
+                    if (summaryTask != this) {
+                        return;
+                    }
+                    listener = summaryListener;
+                    summarySchedule = clock.schedule(this, summaryInterval);
+                }
+                final DwellSummary summary = summarize();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSummary(summary);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Close the current period and return its summary. Next period starts now.
+     * @return summary of beacons visible since the previous summary
+     */
+    public DwellSummary summarize() {
+        long now = clock.elapsedRealtime();
+        long end = clock.currentTimeMillis();
+        long start;
+        synchronized (this) {
+            start = periodStart;
+            periodStart = end;
+        }
+        List<DwellSummary.Entry> entries = new ArrayList<>(active.size());
+        for (DwellState state : active) {
+            synchronized (state) {
+                state.moveTo(state.range, now);
+                entries.add(new DwellSummary.Entry(state.footprint, state.periodVisits,
+                        state.periodDwell, state.range != null));
+                state.periodVisits = 0;
+                state.periodDwell = 0;
+                if (state.range == null) {
+                    active.remove(state);
+                }
+            }
+        }
+        return new DwellSummary(start, end, occupancy.get(), entries);
+    }
+
+    /**
+     * Drop statistics of all beacons. Beacons currently visible start a new visit.
+     */
+    public void reset() {
+        long now = clock.elapsedRealtime();
+        for (DwellState state : states.values()) {
+            synchronized (state) {
+                BLERange range = state.range;
+                state.clear();
+                if (range != null) {
+                    state.moveTo(range, now);
+                } else {
+                    states.remove(state.footprint, state);
+                    active.remove(state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mutable statistics of a beacon, guarded by its own monitor.
+     */
+    private static class DwellState {
+
+        private final DeviceFootprint footprint;
+
+        private BLERange range;
+        private long rangeSince;
+        private long visitStart;
+        private int visits;
+        private final long[] rangeDwell = new long[RANGES.length];
+
+        private int periodVisits;
+        private long periodDwell;
+
+        DwellState(DeviceFootprint footprint) {
+            this.footprint = footprint;
+        }
+
+        void moveTo(BLERange newRange, long now) {
+            if (range != null) {
+                long dwell = now - rangeSince;
+                rangeDwell[range.ordinal()] += dwell;
+                periodDwell += dwell;
+            } else if (newRange != null) {
+                visits++;
+                periodVisits++;
+                visitStart = now;
+            }
+            range = newRange;
+            rangeSince = now;
+        }
+
+        void clear() {
+            range = null;
+            visits = 0;
+            periodVisits = 0;
+            periodDwell = 0;
+            for (int i = 0; i < rangeDwell.length; i++) {
+                rangeDwell[i] = 0;
+            }
+        }
+
+        synchronized DwellSnapshot snapshot(long now, long time) {
+            long[] dwell = rangeDwell.clone();
+            long visitDuration = 0;
+            if (range != null) {
+                dwell[range.ordinal()] += now - rangeSince;
+                visitDuration = now - visitStart;
+            }
+            return new DwellSnapshot(footprint, range, visits, visitDuration, dwell, time);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.analytics;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+/**
+ * Dwell statistics of a beacon at the moment of the snapshot. Durations are in milliseconds and
+ * include the time spent in the current visit.
+ */
+public class DwellSnapshot {
+
+    private final DeviceFootprint footprint;
+    private final BLERange range;
+    private final int visits;
+    private final long visitDuration;
+    private final long[] rangeDwell;
+    private final long time;
+
+    DwellSnapshot(DeviceFootprint footprint, BLERange range, int visits, long visitDuration,
+                  long[] rangeDwell, long time) {
+        this.footprint = footprint;
+        this.range = range;
+        this.visits = visits;
+        this.visitDuration = visitDuration;
+        this.rangeDwell = rangeDwell;
+        this.time = time;
+    }
+
+    public DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * @return current range of the beacon, null if it is not visible
+     */
+    public BLERange getRange() {
+        return range;
+    }
+
+    public boolean isPresent() {
+        return range != null;
+    }
+
+    /**
+     * @return number of times the beacon area was entered
+     */
+    public int getVisits() {
+        return visits;
+    }
+
+    /**
+     * @return duration of the current visit, 0 if the beacon is not visible
+     */
+    public long getVisitDuration() {
+        return visitDuration;
+    }
+
+    /**
+     * @return total time spent in the beacon area
+     */
+    public long getDwellTime() {
+        long total = 0;
+        for (long dwell : rangeDwell) {
+            total += dwell;
+        }
+        return total;
+    }
+
+    /**
+     * @param range range of the beacon
+     * @return total time spent in given range
+     */
+    public long getDwellTime(BLERange range) {
+        return rangeDwell[range.ordinal()];
+    }
+
+    /**
+     * @return time of the snapshot
+     */
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.analytics;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+import java.util.List;
+
+/**
+ * Aggregated dwell statistics of a summary period. Contains an entry for every beacon which was
+ * visible during the period.
+ */
+public class DwellSummary {
+
+    private final long periodStart;
+    private final long periodEnd;
+    private final int occupancy;
+    private final List<Entry> entries;
+
+    DwellSummary(long periodStart, long periodEnd, int occupancy, List<Entry> entries) {
+        this.periodStart = periodStart;
+        this.periodEnd = periodEnd;
+        this.occupancy = occupancy;
+        this.entries = entries;
+    }
+
+    public long getPeriodStart() {
+        return periodStart;
+    }
+
+    public long getPeriodEnd() {
+        return periodEnd;
+    }
+
+    /**
+     * @return number of beacons visible at the end of the period
+     */
+    public int getOccupancy() {
+        return occupancy;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Statistics of a single beacon within the period.
+     */
+    public static class Entry {
+
+        private final DeviceFootprint footprint;
+        private final int visits;
+        private final long dwellTime;
+        private final boolean present;
+
+        Entry(DeviceFootprint footprint, int visits, long dwellTime, boolean present) {
+            this.footprint = footprint;
+            this.visits = visits;
+            this.dwellTime = dwellTime;
+            this.present = present;
+        }
+
+        public DeviceFootprint getFootprint() {
+            return footprint;
+        }
+
+        /**
+         * @return number of times the beacon area was entered within the period
+         */
+        public int getVisits() {
+            return visits;
+        }
+
+        /**
+         * @return time in milliseconds spent in the beacon area within the period
+         */
+        public long getDwellTime() {
+            return dwellTime;
+        }
+
+        /**
+         * @return true if the beacon is visible at the end of the period
+         */
+        public boolean isPresent() {
+            return present;
+        }
+    }
+}
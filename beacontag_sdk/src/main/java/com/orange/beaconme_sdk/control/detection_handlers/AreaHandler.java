@@ -20,11 +20,11 @@ import com.orange.beaconme_sdk.ble.model.BLERange;
 import com.orange.beaconme_sdk.ble.model.BLERangeChange;
 import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
 import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.ble.model.RangeModel;
+import com.orange.beaconme_sdk.control.time.ScheduledTask;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * Superclass of all handlers which works with areas, like enter, exit area or proximity zone.
@@ -37,34 +37,182 @@ public abstract class AreaHandler extends TagDetectionHandler {
     private BLERange range = null;
     private List<BLERangeChange> rangeChangesStack = new ArrayList<>();
 
-    private TimerTask makeInvisibleTask;
+    /**
+     * Invisibility task scheduled on the clock of the handler, null if none is scheduled.
+     * The clock's tasks run on a shared thread, so registering a beacon doesn't start a new one.
+     */
+    private Runnable makeInvisibleTask;
+    private ScheduledTask makeInvisibleSchedule;
+    private long lastDetectionTime;
+
+    /**
+     * Held while a range transition is decided and reported, so detections and the invisibility
+     * task report transitions one at a time and in order. Range itself is guarded by the handler's
+     * monitor, which is not held while listeners are called.
+     */
+    private final Object transitionLock = new Object();
 
-    private Timer timer = new Timer();
+    private volatile RangeModel rangeModel = RangeModel.DEFAULT;
+    private volatile int hysteresis;
+    private volatile OnRangeChangedListener rangeChangedListener;
 
     protected AreaHandler(DeviceFootprint footprint, OnTriggerFiredListener listener) {
         super(footprint, listener);
     }
 
-    private void rescheduleInvisibilityTask() {
-        if (makeInvisibleTask != null) {
-            makeInvisibleTask.cancel();
+    /**
+     * @param rangeModel model classifying detections into ranges
+     */
+    public void setRangeModel(RangeModel rangeModel) {
+        this.rangeModel = rangeModel;
+    }
+
+    /**
+     * @param hysteresis margin in dB by which a detection must cross boundary of the current
+     *                   range to be classified into another range, 0 disables it
+     */
+    public void setHysteresis(int hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * @param listener will be notified of every range transition of the handler, including
+     *                 entering (from null) and leaving (to null) the area
+     */
+    public void setOnRangeChangedListener(OnRangeChangedListener listener) {
+        rangeChangedListener = listener;
+    }
+
+    /**
+     * Remember time of the detection and make sure that invisibility task is scheduled. Task is
+     * not rescheduled on every detection, instead it checks time of the last detection when it
+     * runs and schedules itself for the remaining time.
+     */
+    private synchronized void onVisible(long time) {
+        lastDetectionTime = time;
+        if (makeInvisibleTask == null) {
+            scheduleInvisibilityTask(VISIBILITY_DELAY);
         }
-        timer.purge();
-        makeInvisibleTask = getMakeInvisibleTask();
-        timer.schedule(makeInvisibleTask, VISIBILITY_DELAY);
     }
 
+    private void scheduleInvisibilityTask(long delay) {
+        makeInvisibleTask = getMakeInvisibleTask();
+        makeInvisibleSchedule = getClock().schedule(makeInvisibleTask, delay);
+    }
 
     @Override
     protected void handleDetection(IBeaconDetect detection) {
-        rescheduleInvisibilityTask();
-        onNewRangeCome(detection.getRange());
+        synchronized (transitionLock) {
+            BLERange oldRange;
+            BLERange newRange;
+            synchronized (this) {
+                onVisible(detection.getElapsedTime());
+                oldRange = range;
+                onNewRangeCome(rangeModel.getRange(detection.getTxPower(), detection.getRssi(),
+                        oldRange, hysteresis), detection.getElapsedTime());
+                newRange = range;
+            }
+            if (newRange != oldRange) {
+                notifyRangeChanged(oldRange, newRange);
+            }
+        }
     }
 
-    private void onNewRangeCome(BLERange newRange) {
-        rangeChangesStack.add(new BLERangeChange(newRange, System.currentTimeMillis()));
+    /**
+     * Stop the handler. If the device is visible, range listener is notified that the handler
+     * leaves the area.
+     */
+    @Override
+    public void deactivate() {
+        super.deactivate();
+        cancelInvisibilityTask();
+        OnRangeChangedListener listener = rangeChangedListener;
+        rangeChangedListener = null;
+        BLERange currentRange;
+        synchronized (this) {
+            currentRange = range;
+        }
+        if (listener != null && currentRange != null) {
+            listener.onRangeChanged(getFootprint(), currentRange, null);
+        }
+    }
+
+    /**
+     * Stop the handler and pass its current range to the handler replacing it, so a beacon
+     * which is still visible doesn't leave and enter the area again. Neither handler notifies
+     * its listeners of the hand over.
+     * @param replacement handler of the same footprint replacing this one
+     */
+    public void replaceWith(AreaHandler replacement) {
+        super.deactivate();
+        cancelInvisibilityTask();
+        rangeChangedListener = null;
+        BLERange currentRange;
+        long lastDetection;
+        synchronized (this) {
+            currentRange = range;
+            lastDetection = lastDetectionTime;
+        }
+        if (currentRange != null) {
+            replacement.takeOver(currentRange, lastDetection);
+        }
+    }
+
+    /**
+     * @return current range, null if device is not visible
+     */
+    public synchronized BLERange getRange() {
+        return range;
+    }
+
+    /**
+     * @return time of the last detection, in Clock.elapsedRealtime() milliseconds
+     */
+    public synchronized long getLastDetectionTime() {
+        return lastDetectionTime;
+    }
+
+    /**
+     * Restore range of a handler created for a stored registration, so a beacon which is still
+     * visible doesn't enter the area again. Listeners are not notified. Range is not restored if
+     * the beacon was not detected for the visibility timeout, the beacon then starts outside.
+     * @param currentRange stored range
+     * @param lastDetection time of the last detection, in Clock.elapsedRealtime() milliseconds
+     */
+    public void restoreRange(BLERange currentRange, long lastDetection) {
+        if (currentRange != null
+                && getClock().elapsedRealtime() - lastDetection < VISIBILITY_DELAY) {
+            takeOver(currentRange, lastDetection);
+        }
+    }
+
+    private synchronized void takeOver(BLERange currentRange, long lastDetection) {
+        if (range != null) {
+            return;
+        }
+        range = currentRange;
+        lastDetectionTime = lastDetection;
+        if (makeInvisibleTask == null) {
+            long invisibleFor = getClock().elapsedRealtime() - lastDetection;
+            scheduleInvisibilityTask(Math.max(0, VISIBILITY_DELAY - invisibleFor));
+        }
+    }
+
+    private synchronized void cancelInvisibilityTask() {
+        if (makeInvisibleTask != null) {
+            makeInvisibleSchedule.cancel();
+            makeInvisibleTask = null;
+            makeInvisibleSchedule = null;
+        }
+    }
+
+    /**
+     * Must be called under the handler's monitor, updates range without notifying listeners.
+     */
+    private void onNewRangeCome(BLERange newRange, long now) {
+        rangeChangesStack.add(new BLERangeChange(newRange, now));
         BLERangeChange rangeChange = rangeChangesStack.get(0);
-        while (rangeChange.getTimestamp() < System.currentTimeMillis() - SAFE_INTERVAL) {
+        while (rangeChange.getTimestamp() < now - SAFE_INTERVAL) {
             rangeChangesStack.remove(rangeChange);
             rangeChange = rangeChangesStack.get(0);
         }
@@ -83,17 +231,23 @@ public abstract class AreaHandler extends TagDetectionHandler {
         }
 
         if (range == null) {
-            changeRange(highestRange);
+            range = highestRange;
         } else if((range.compareTo(highestRange) > 0) && (range.compareTo(lowestRange) > 0)) {
-            changeRange(highestRange);
+            range = highestRange;
         } else if(range.compareTo(highestRange) < 0 && range.compareTo(lowestRange) < 0) {
-            changeRange(lowestRange);
+            range = lowestRange;
         }
     }
 
-    private void changeRange(BLERange newRange) {
-        onRangeChanged(range, newRange);
-        range = newRange;
+    /**
+     * Must be called under transitionLock, without the handler's monitor.
+     */
+    private void notifyRangeChanged(BLERange oldRange, BLERange newRange) {
+        onRangeChanged(oldRange, newRange);
+        OnRangeChangedListener listener = rangeChangedListener;
+        if (listener != null) {
+            listener.onRangeChanged(getFootprint(), oldRange, newRange);
+        }
     }
 
     protected void onRangeChanged(BLERange oldRange, BLERange newRange) {
@@ -104,19 +258,41 @@ public abstract class AreaHandler extends TagDetectionHandler {
      * Make task which will set range to null, basically means that phone exits beacon area
      * @return make invisible task
      */
-    private TimerTask getMakeInvisibleTask() {
-        return new TimerTask() {
+    private Runnable getMakeInvisibleTask() {
+        return new Runnable() {
             @Override
             public void run() {
-                if (range != null) {
-                    onRangeChanged(range, null);
+                synchronized (transitionLock) {
+                    BLERange oldRange;
+                    synchronized (AreaHandler.this) {
+                        if (makeInvisibleTask != this) {
+                            return;
+                        }
+                        // Detection could come while waiting for transitionLock
+                        long invisibleFor = getClock().elapsedRealtime() - lastDetectionTime;
+                        if (invisibleFor < VISIBILITY_DELAY) {
+                            scheduleInvisibilityTask(VISIBILITY_DELAY - invisibleFor);
+                            return;
+                        }
+                        makeInvisibleTask = null;
+                        makeInvisibleSchedule = null;
+                        oldRange = range;
+                        range = null;
+                    }
+                    if (oldRange != null) {
+                        notifyRangeChanged(oldRange, null);
+                    }
                 }
-                range = null;
             }
         };
     }
 
-    protected BLERange getRange() {
-        return range;
+    public interface OnRangeChangedListener {
+        /**
+         * @param footprint footprint of the handler
+         * @param oldRange previous range, null if device was not visible
+         * @param newRange new range, null if device is no longer visible
+         */
+        void onRangeChanged(DeviceFootprint footprint, BLERange oldRange, BLERange newRange);
     }
 }
@@ -16,6 +16,7 @@ package com.orange.beaconme_sdk.control.detection_handlers;
 
 import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
 import com.orange.beaconme_sdk.control.model.AreaSettings;
+import com.orange.beaconme_sdk.control.model.BeaconSettings;
 
 /**
  *
@@ -24,6 +25,22 @@ public final class DetectionHandlerFactory {
 
     private DetectionHandlerFactory() {}
 
+    /**
+     * Create handler for the registration of given settings: classifying detections with its
+     * range model and hysteresis, and suppressing triggers within its cooldown.
+     */
+    public static TagDetectionHandler getHandler(BeaconSettings settings,
+                                                 TagDetectionHandler.OnTriggerFiredListener triggerFiredListener) {
+        TagDetectionHandler handler = getHandler(settings.getDeviceFootprint(),
+                triggerFiredListener, settings.getAreaSettings());
+        handler.setCooldown(settings.getTriggerCooldown());
+        if (handler instanceof AreaHandler) {
+            ((AreaHandler) handler).setRangeModel(settings.getRangeModel());
+            ((AreaHandler) handler).setHysteresis(settings.getRangeHysteresis());
+        }
+        return handler;
+    }
+
     public static TagDetectionHandler getHandler(DeviceFootprint footprint,
                                                  TagDetectionHandler.OnTriggerFiredListener triggerFiredListener,
                                                  AreaSettings areaSettings) {
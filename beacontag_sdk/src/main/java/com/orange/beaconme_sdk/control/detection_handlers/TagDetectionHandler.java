@@ -17,6 +17,9 @@ package com.orange.beaconme_sdk.control.detection_handlers;
 
 import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
 import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.control.time.Clock;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Super class of detection handlers register listener and invoke appropriate method when
@@ -26,14 +29,51 @@ public abstract class TagDetectionHandler {
     
     private final DeviceFootprint footprint;
     private volatile OnTriggerFiredListener listener;
+    private volatile Clock clock = Clock.getDefault();
+
+    private volatile long cooldown;
+    private long lastFired;
+    private boolean fired;
+    private final AtomicLong suppressedCount = new AtomicLong();
 
     protected TagDetectionHandler(DeviceFootprint footprint, OnTriggerFiredListener listener) {
         this.footprint = footprint;
         this.listener = listener;
     }
     
+    /**
+     * @param clock clock measuring cooldown and time windows of the handler
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    protected Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Set minimal time between two triggers of the handler. Triggers fired sooner are
+     * suppressed.
+     * @param cooldown cooldown in milliseconds, 0 disables it
+     */
+    public void setCooldown(long cooldown) {
+        this.cooldown = cooldown;
+    }
+
+    /**
+     * @return number of triggers suppressed by the cooldown
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    public DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
     public void onDetect(IBeaconDetect detection) {
-        if (detection.getFootprint().equals(footprint)) {
+        if (footprint.matches(detection.getFootprint())) {
             handleDetection(detection);
         }
     }
@@ -47,9 +87,46 @@ public abstract class TagDetectionHandler {
     }
     
     protected void onFired() {
-        if (listener != null) {
-            listener.onFired(footprint);
+        OnTriggerFiredListener listener = this.listener;
+        if (listener == null) {
+            return;
         }
+        if (!acquireCooldown()) {
+            suppressedCount.incrementAndGet();
+            if (listener instanceof OnTriggerSuppressedListener) {
+                ((OnTriggerSuppressedListener) listener).onSuppressed(footprint);
+            }
+            return;
+        }
+        listener.onFired(footprint);
+    }
+
+    /**
+     * @return time of the last trigger, in Clock.elapsedRealtime() milliseconds, -1 if the
+     * handler didn't fire yet
+     */
+    public synchronized long getLastFiredTime() {
+        return fired ? lastFired : -1;
+    }
+
+    /**
+     * Restore time of the last trigger of a handler created for a stored registration, so its
+     * cooldown holds across restarts.
+     * @param lastFiredTime time of the last trigger, in Clock.elapsedRealtime() milliseconds
+     */
+    public synchronized void restoreLastFiredTime(long lastFiredTime) {
+        fired = true;
+        lastFired = lastFiredTime;
+    }
+
+    private synchronized boolean acquireCooldown() {
+        long now = clock.elapsedRealtime();
+        if (fired && now - lastFired < cooldown) {
+            return false;
+        }
+        fired = true;
+        lastFired = now;
+        return true;
     }
 
     public void deactivate() {
@@ -59,4 +136,15 @@ public abstract class TagDetectionHandler {
     public interface OnTriggerFiredListener {
         void onFired(DeviceFootprint deviceFootprint);
     }
+
+    /**
+     * Implemented by an OnTriggerFiredListener which also wants to know of suppressed triggers.
+     */
+    public interface OnTriggerSuppressedListener {
+
+        /**
+         * Invoked instead of onFired when the trigger is suppressed by the cooldown.
+         */
+        void onSuppressed(DeviceFootprint deviceFootprint);
+    }
 }
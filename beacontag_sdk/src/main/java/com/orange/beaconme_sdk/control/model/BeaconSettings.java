@@ -15,6 +15,7 @@
 package com.orange.beaconme_sdk.control.model;
 
 import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.RangeModel;
 
 import java.util.Arrays;
 import java.util.List;
@@ -35,6 +36,9 @@ public class BeaconSettings {
     private static final int MIN_ADVERTISING_INTERVAL = 160;
     private static final int MAX_ADVERTISING_INTERVAL = 16000;
 
+    private static final int MAX_RANGE_HYSTERESIS = 20;
+    private static final int MAX_DETECTION_RATE = 100;
+
     private final DeviceFootprint footprint;
     private final AreaSettings areaSettings;
 
@@ -56,6 +60,15 @@ public class BeaconSettings {
     private boolean advertisingIntervalEnabled = false;
     private int advertisingInterval;
 
+    private RangeModel rangeModel = RangeModel.DEFAULT;
+    private int rangeHysteresis;
+    private long triggerCooldown;
+    private int maxDetectionRate;
+
+    private boolean positionEnabled = false;
+    private double positionX;
+    private double positionY;
+
     /**
      * Create a BeaconSettings for chosen devices
      * @param uuid Beacon uuid.
@@ -68,6 +81,30 @@ public class BeaconSettings {
         this.areaSettings = areaSettings;
     }
 
+    /**
+     * Create a BeaconSettings for all devices with given uuid. Events are triggered for the region
+     * as a whole: it is entered when any of the devices is detected and exited when none of them
+     * is visible anymore.
+     * @param uuid Beacon uuid.
+     * @param areaSettings settings reflect type of event to occur: enter area, exit area, etc.
+     * @return settings of the region
+     */
+    public static BeaconSettings forRegion(String uuid, AreaSettings areaSettings) {
+        return new BeaconSettings(uuid, DeviceFootprint.ANY, DeviceFootprint.ANY, areaSettings);
+    }
+
+    /**
+     * Create a BeaconSettings for all devices with given uuid and major. Events are triggered for
+     * the region as a whole.
+     * @param uuid Beacon uuid.
+     * @param major Beacon major.
+     * @param areaSettings settings reflect type of event to occur: enter area, exit area, etc.
+     * @return settings of the region
+     */
+    public static BeaconSettings forRegion(String uuid, int major, AreaSettings areaSettings) {
+        return new BeaconSettings(uuid, major, DeviceFootprint.ANY, areaSettings);
+    }
+
     public DeviceFootprint getDeviceFootprint() {
         return footprint;
     }
@@ -138,6 +175,109 @@ public class BeaconSettings {
         }
     }
 
+    /**
+     * Set distances separating IMMIDIATE, NEAR and FAR ranges and path-loss exponent used to
+     * estimate distance to the device. By default ranges are separated at 1 and 10 meters with
+     * free space exponent of 2.
+     * @param immediateThreshold max distance in meters of the IMMIDIATE range
+     * @param nearThreshold max distance in meters of the NEAR range, must not be less than
+     *                      immediateThreshold
+     * @param pathLossExponent path-loss exponent of the environment, usually 2 to 4
+     * @throws IllegalArgumentException if thresholds or exponent are invalid
+     */
+    public void setRangeModel(double immediateThreshold, double nearThreshold,
+                              double pathLossExponent) {
+        setRangeModel(new RangeModel(immediateThreshold, nearThreshold, pathLossExponent));
+    }
+
+    /**
+     * Set model classifying detections of the device into ranges.
+     * @param rangeModel range model, null resets the default one
+     */
+    public void setRangeModel(RangeModel rangeModel) {
+        this.rangeModel = rangeModel != null ? rangeModel : RangeModel.DEFAULT;
+    }
+
+    public RangeModel getRangeModel() {
+        return rangeModel;
+    }
+
+    /**
+     * Set hysteresis of range changes: a detection is classified into another range than
+     * the current one only if its signal crosses the range boundary by given margin. Prevents
+     * repeated events of a device at the edge of a range.
+     * @param margin margin in dB (0 to 20), 0 disables hysteresis. If it is not within range it
+     *               will be ignored
+     */
+    public void setRangeHysteresis(int margin) {
+        if (0 <= margin && margin <= MAX_RANGE_HYSTERESIS) {
+            rangeHysteresis = margin;
+        }
+    }
+
+    public int getRangeHysteresis() {
+        return rangeHysteresis;
+    }
+
+    /**
+     * Set minimal time between two events of the beacon. Events occurring sooner are suppressed.
+     * @param cooldown cooldown in milliseconds, 0 disables it. Negative value will be ignored
+     */
+    public void setTriggerCooldown(long cooldown) {
+        if (cooldown >= 0) {
+            triggerCooldown = cooldown;
+        }
+    }
+
+    public long getTriggerCooldown() {
+        return triggerCooldown;
+    }
+
+    /**
+     * Set max number of detections of the beacon processed per second. A beacon advertising
+     * faster is sampled: detections received in between are folded into the next processed
+     * one as its average signal strength. A beacon matching several registrations, e.g. its own
+     * and a region, is sampled at the highest rate of them.
+     * @param perSecond detections per second (1 to 100), 0 processes all detections. If it is
+     *                  not within range it will be ignored
+     */
+    public void setMaxDetectionRate(int perSecond) {
+        if (0 <= perSecond && perSecond <= MAX_DETECTION_RATE) {
+            maxDetectionRate = perSecond;
+        }
+    }
+
+    public int getMaxDetectionRate() {
+        return maxDetectionRate;
+    }
+
+    /**
+     * Set position of the beacon, so distance to it is used to estimate position of the phone.
+     * Coordinates are in meters, in any coordinate system shared by all positioned beacons.
+     * Ignored for regions.
+     * @param x x coordinate of the beacon
+     * @param y y coordinate of the beacon
+     */
+    public void setPosition(double x, double y) {
+        if (!footprint.isWildcard()) {
+            positionEnabled = true;
+            positionX = x;
+            positionY = y;
+        }
+    }
+
+    public boolean isPositionEnabled() {
+        return positionEnabled;
+    }
+
+    public double getPositionX() {
+        return positionX;
+    }
+
+    public double getPositionY() {
+        return positionY;
+    }
+
     public DeviceFootprint getFootprint() {
         return footprint;
     }
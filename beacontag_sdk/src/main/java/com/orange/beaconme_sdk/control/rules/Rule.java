@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.rules;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+/**
+ * Declarative trigger rule evaluated on range changes of a registered beacon or region.
+ * A rule fires when its beacon enters (or leaves) given range and optional conditions hold:
+ * minimal dwell time, preceding detection of another beacon, cooldown since the previous event
+ * and time window of the day. Rule is compiled when it is added to the RuleEngine, later
+ * modifications of the rule have no effect on the engine.
+ *
+ * Example, fire when beacon B is approached for at least 5 seconds, within 30 seconds after
+ * beacon A was seen, at most once per 10 minutes:
+ * <pre>
+ * Rule.enter("a-then-b", footprintB, BLERange.NEAR)
+ *         .dwell(5000)
+ *         .after(footprintA, BLERange.FAR, 30000)
+ *         .cooldown(600000);
+ * </pre>
+ */
+public class Rule {
+
+    private final String id;
+    private final DeviceFootprint footprint;
+    private final BLERange range;
+    private final boolean enter;
+
+    private long dwell;
+    private long cooldown;
+
+    private DeviceFootprint predecessor;
+    private BLERange predecessorRange;
+    private long predecessorWindow;
+
+    private int windowStart = -1;
+    private int windowEnd = -1;
+
+    private Rule(String id, DeviceFootprint footprint, BLERange range, boolean enter) {
+        if (id == null || footprint == null || range == null) {
+            throw new IllegalArgumentException("Rule id, footprint and range are required");
+        }
+        this.id = id;
+        this.footprint = footprint;
+        this.range = range;
+        this.enter = enter;
+    }
+
+    /**
+     * Rule firing when the beacon comes within given range.
+     * @param id identifier of the rule, sent with its events
+     * @param footprint footprint of a registered beacon or region
+     * @param range range to enter, e.g. NEAR is entered when beacon becomes NEAR or IMMIDIATE
+     * @return new rule
+     */
+    public static Rule enter(String id, DeviceFootprint footprint, BLERange range) {
+        return new Rule(id, footprint, range, true);
+    }
+
+    /**
+     * Rule firing when the beacon leaves given range, including when it is no longer visible.
+     * @param id identifier of the rule, sent with its events
+     * @param footprint footprint of a registered beacon or region
+     * @param range range to leave, e.g. NEAR is left when beacon becomes FAR or invisible
+     * @return new rule
+     */
+    public static Rule exit(String id, DeviceFootprint footprint, BLERange range) {
+        return new Rule(id, footprint, range, false);
+    }
+
+    /**
+     * Fire only if the beacon stays within (or out of, for exit rules) the range for given time.
+     * Shorter changes are ignored, so it can be used to debounce events.
+     * @param millis minimal dwell time in milliseconds
+     * @return this rule
+     */
+    public Rule dwell(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Invalid dwell time: " + millis);
+        }
+        dwell = millis;
+        return this;
+    }
+
+    /**
+     * Fire at most once per given period.
+     * @param millis minimal time between two events of the rule in milliseconds
+     * @return this rule
+     */
+    public Rule cooldown(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Invalid cooldown: " + millis);
+        }
+        cooldown = millis;
+        return this;
+    }
+
+    /**
+     * Fire only if another beacon entered given range at most given time before condition of
+     * this rule became true.
+     * @param footprint footprint of a registered beacon or region which must be seen first
+     * @param range range the other beacon must have entered
+     * @param within max time between the two in milliseconds
+     * @return this rule
+     */
+    public Rule after(DeviceFootprint footprint, BLERange range, long within) {
+        if (footprint == null || range == null || within < 0) {
+            throw new IllegalArgumentException("Invalid preceding condition");
+        }
+        predecessor = footprint;
+        predecessorRange = range;
+        predecessorWindow = within;
+        return this;
+    }
+
+    /**
+     * Fire only within given time of the day, in local time. If start is after end, window
+     * spans midnight.
+     * @param startMinute start of the window in minutes from midnight, inclusive
+     * @param endMinute end of the window in minutes from midnight, exclusive
+     * @return this rule
+     */
+    public Rule between(int startMinute, int endMinute) {
+        if (startMinute < 0 || startMinute >= 24 * 60 || endMinute < 0 || endMinute > 24 * 60) {
+            throw new IllegalArgumentException("Invalid time window: " + startMinute + "-"
+                    + endMinute);
+        }
+        windowStart = startMinute;
+        windowEnd = endMinute;
+        return this;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
+    public BLERange getRange() {
+        return range;
+    }
+
+    public boolean isEnter() {
+        return enter;
+    }
+
+    public long getDwell() {
+        return dwell;
+    }
+
+    public long getCooldown() {
+        return cooldown;
+    }
+
+    public DeviceFootprint getPredecessor() {
+        return predecessor;
+    }
+
+    public BLERange getPredecessorRange() {
+        return predecessorRange;
+    }
+
+    public long getPredecessorWindow() {
+        return predecessorWindow;
+    }
+
+    /**
+     * @return start of the time window in minutes from midnight, -1 if rule has no window
+     */
+    public int getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * @return end of the time window in minutes from midnight, -1 if rule has no window
+     */
+    public int getWindowEnd() {
+        return windowEnd;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.rules;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.detection_handlers.AreaHandler;
+import com.orange.beaconme_sdk.control.time.Clock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates rules on range changes of registered beacons and regions. Rules are compiled into
+ * state machines indexed by the footprints they depend on, so a range change is evaluated only
+ * by the rules of its beacon.
+ */
+public class RuleEngine implements AreaHandler.OnRangeChangedListener {
+
+    private static final RuleMachine[] NO_MACHINES = new RuleMachine[0];
+
+    private final Clock clock;
+
+    private final Object lock = new Object();
+    private final Map<String, Rule> rules = new LinkedHashMap<>();
+    private final Map<String, RuleMachine> machines = new HashMap<>();
+
+    /**
+     * Machines by footprint, rebuilt whenever a rule is added or removed.
+     */
+    private volatile Map<DeviceFootprint, RuleMachine[]> index =
+            Collections.<DeviceFootprint, RuleMachine[]>emptyMap();
+
+    private volatile OnRuleFiredListener listener;
+
+    public RuleEngine(OnRuleFiredListener listener) {
+        this(listener, Clock.getDefault());
+    }
+
+    /**
+     * @param listener listener of fired rules
+     * @param clock clock measuring dwell times, windows and cooldowns of the rules
+     */
+    public RuleEngine(OnRuleFiredListener listener, Clock clock) {
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /**
+     * Add rule to the engine. Rule with the same id is replaced and its state is dropped.
+     * @param rule rule to add
+     */
+    public void addRule(Rule rule) {
+        synchronized (lock) {
+            RuleMachine previous = machines.put(rule.getId(), new RuleMachine(rule, this));
+            if (previous != null) {
+                previous.cancel();
+            }
+            rules.put(rule.getId(), rule);
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * @param id id of the rule to remove
+     * @return true if rule was added
+     */
+    public boolean removeRule(String id) {
+        synchronized (lock) {
+            RuleMachine machine = machines.remove(id);
+            if (machine == null) {
+                return false;
+            }
+            machine.cancel();
+            rules.remove(id);
+            rebuildIndex();
+            return true;
+        }
+    }
+
+    /**
+     * Remove all rules.
+     */
+    public void clear() {
+        synchronized (lock) {
+            for (RuleMachine machine : machines.values()) {
+                machine.cancel();
+            }
+            machines.clear();
+            rules.clear();
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * @return rules added to the engine, in order of adding
+     */
+    public List<Rule> getRules() {
+        synchronized (lock) {
+            return new ArrayList<>(rules.values());
+        }
+    }
+
+    @Override
+    public void onRangeChanged(DeviceFootprint footprint, BLERange oldRange, BLERange newRange) {
+        RuleMachine[] dependent = index.get(footprint);
+        if (dependent == null) {
+            return;
+        }
+        long now = clock.elapsedRealtime();
+        for (RuleMachine machine : dependent) {
+            machine.onRangeChanged(footprint, oldRange, newRange, now);
+        }
+    }
+
+    void onRuleFired(String id, DeviceFootprint footprint) {
+        OnRuleFiredListener listener = this.listener;
+        if (listener != null) {
+            listener.onRuleFired(id, footprint);
+        }
+    }
+
+    Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Must be called under lock.
+     */
+    private void rebuildIndex() {
+        Map<DeviceFootprint, List<RuleMachine>> lists = new HashMap<>();
+        for (RuleMachine machine : machines.values()) {
+            addToIndex(lists, machine.getFootprint(), machine);
+            DeviceFootprint predecessor = machine.getPredecessor();
+            if (predecessor != null && !predecessor.equals(machine.getFootprint())) {
+                addToIndex(lists, predecessor, machine);
+            }
+        }
+        Map<DeviceFootprint, RuleMachine[]> newIndex = new HashMap<>();
+        for (Map.Entry<DeviceFootprint, List<RuleMachine>> entry : lists.entrySet()) {
+            newIndex.put(entry.getKey(), entry.getValue().toArray(NO_MACHINES));
+        }
+        index = newIndex;
+    }
+
+    private static void addToIndex(Map<DeviceFootprint, List<RuleMachine>> lists,
+                                   DeviceFootprint footprint, RuleMachine machine) {
+        List<RuleMachine> list = lists.get(footprint);
+        if (list == null) {
+            list = new ArrayList<>();
+            lists.put(footprint, list);
+        }
+        list.add(machine);
+    }
+
+    public interface OnRuleFiredListener {
+        void onRuleFired(String ruleId, DeviceFootprint footprint);
+    }
+}
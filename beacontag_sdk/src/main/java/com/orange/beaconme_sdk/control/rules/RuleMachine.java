@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.rules;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+import com.orange.beaconme_sdk.control.time.ScheduledTask;
+
+import java.util.Calendar;
+
+/**
+ * Compiled rule: parameters of the rule copied into primitives and the evaluation state of it.
+ * Condition of the rule is a range limit, so range changes are evaluated by comparing ordinals.
+ */
+class RuleMachine {
+
+    private static final int IDLE = 0;
+    private static final int PENDING = 1;
+    private static final int SATISFIED = 2;
+
+    /**
+     * Ordinal of the range beyond FAR, used for invisible beacon.
+     */
+    private static final int INVISIBLE = BLERange.values().length;
+
+    private final String id;
+    private final DeviceFootprint footprint;
+    private final int range;
+    private final boolean enter;
+    private final long dwell;
+    private final long cooldown;
+    private final DeviceFootprint predecessor;
+    private final int predecessorRange;
+    private final long predecessorWindow;
+    private final int windowStart;
+    private final int windowEnd;
+
+    private final RuleEngine engine;
+
+    private int state = IDLE;
+    private long conditionSince;
+    private long lastFired = Long.MIN_VALUE;
+    private long predecessorTime = Long.MIN_VALUE;
+    private Runnable dwellTask;
+    private ScheduledTask dwellSchedule;
+
+    RuleMachine(Rule rule, RuleEngine engine) {
+        id = rule.getId();
+        footprint = rule.getFootprint();
+        range = rule.getRange().ordinal();
+        enter = rule.isEnter();
+        dwell = rule.getDwell();
+        cooldown = rule.getCooldown();
+        predecessor = rule.getPredecessor();
+        predecessorRange = predecessor != null ? rule.getPredecessorRange().ordinal() : 0;
+        predecessorWindow = rule.getPredecessorWindow();
+        windowStart = rule.getWindowStart();
+        windowEnd = rule.getWindowEnd();
+        this.engine = engine;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
+    DeviceFootprint getPredecessor() {
+        return predecessor;
+    }
+
+    void onRangeChanged(DeviceFootprint changed, BLERange oldRange, BLERange newRange, long now) {
+        int oldOrdinal = ordinal(oldRange);
+        int newOrdinal = ordinal(newRange);
+        boolean fire = false;
+        synchronized (this) {
+            if (predecessor != null && predecessor.equals(changed)
+                    && newOrdinal <= predecessorRange && oldOrdinal > predecessorRange) {
+                predecessorTime = now;
+            }
+            if (!footprint.equals(changed)) {
+                return;
+            }
+            boolean condition = holds(newOrdinal);
+            if (!condition) {
+                state = IDLE;
+                cancelDwellTask();
+            } else if (state == IDLE && !holds(oldOrdinal)) {
+                state = PENDING;
+                conditionSince = now;
+                if (dwell == 0) {
+                    fire = satisfy(now);
+                } else {
+                    scheduleDwellTask();
+                }
+            }
+        }
+        if (fire) {
+            engine.onRuleFired(id, footprint);
+        }
+    }
+
+    synchronized void cancel() {
+        state = IDLE;
+        cancelDwellTask();
+    }
+
+    private boolean holds(int rangeOrdinal) {
+        return enter ? rangeOrdinal <= range : rangeOrdinal > range;
+    }
+
+    /**
+     * Condition held long enough, check remaining conditions. Rule is not fired again until its
+     * condition becomes false.
+     * @return true if rule should fire
+     */
+    private boolean satisfy(long now) {
+        state = SATISFIED;
+        if (predecessor != null && (predecessorTime == Long.MIN_VALUE
+                || predecessorTime > conditionSince
+                || conditionSince - predecessorTime > predecessorWindow)) {
+            return false;
+        }
+        if (lastFired != Long.MIN_VALUE && now - lastFired < cooldown) {
+            return false;
+        }
+        if (windowStart >= 0 && !isWithinWindow(engine.getClock().currentTimeMillis())) {
+            return false;
+        }
+        lastFired = now;
+        return true;
+    }
+
+    private boolean isWithinWindow(long currentTimeMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(currentTimeMillis);
+        int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        if (windowStart <= windowEnd) {
+            return windowStart <= minute && minute < windowEnd;
+        }
+        return minute >= windowStart || minute < windowEnd;
+    }
+
+    private void scheduleDwellTask() {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                boolean fire = false;
+                synchronized (RuleMachine.this) {
+                    if (dwellTask == this && state == PENDING) {
+                        dwellTask = null;
+                        dwellSchedule = null;
+                        fire = satisfy(engine.getClock().elapsedRealtime());
+                    }
+                }
+                if (fire) {
+                    engine.onRuleFired(id, footprint);
+                }
+            }
+        };
+        dwellTask = task;
+        dwellSchedule = engine.getClock().schedule(task, dwell);
+    }
+
+    private void cancelDwellTask() {
+        if (dwellTask != null) {
+            dwellSchedule.cancel();
+            dwellTask = null;
+            dwellSchedule = null;
+        }
+    }
+
+    private static int ordinal(BLERange range) {
+        return range != null ? range.ordinal() : INVISIBLE;
+    }
+}
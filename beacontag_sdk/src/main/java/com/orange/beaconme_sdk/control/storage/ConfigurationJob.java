@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
+
+import java.util.List;
+
+/**
+ * Pending or finished configuration of a device. Jobs are immutable, every change of state
+ * replaces the job in the queue.
+ */
+public class ConfigurationJob {
+
+    public enum State {
+        /**
+         * Waiting for the device to be detected in configuration mode.
+         */
+        PENDING,
+        /**
+         * Device is being configured.
+         */
+        IN_PROGRESS,
+        SUCCEEDED,
+        /**
+         * All attempts to configure the device failed.
+         */
+        FAILED
+    }
+
+    private final DeviceFootprint footprint;
+    private final List<WriteCharacteristicCommand> commands;
+    private final State state;
+    private final int attempts;
+    private final long updateTime;
+
+    ConfigurationJob(DeviceFootprint footprint, List<WriteCharacteristicCommand> commands,
+                     State state, int attempts, long updateTime) {
+        this.footprint = footprint;
+        this.commands = commands;
+        this.state = state;
+        this.attempts = attempts;
+        this.updateTime = updateTime;
+    }
+
+    ConfigurationJob withState(State state, int attempts) {
+        return new ConfigurationJob(footprint, commands, state, attempts,
+                System.currentTimeMillis());
+    }
+
+    public DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * @return desired configuration of the device
+     */
+    public List<WriteCharacteristicCommand> getCommands() {
+        return commands;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return number of failed attempts to configure the device
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return time of the last change of state in milliseconds
+     */
+    public long getUpdateTime() {
+        return updateTime;
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import android.util.Log;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Configuration jobs of devices, by device footprint. A job is pending until its device is
+ * detected in configuration mode, then it is claimed by the device updater and finished as
+ * succeeded or failed. Failed attempts are retried on the next detection of the device, up to
+ * max attempts. Commands already applied according to the configuration ledger are not sent
+ * again, so finished work is not redone.
+ * <p>
+ * Queue is kept in memory and written to a file in background after changes, if a file is
+ * given. Jobs which were in progress when the queue was saved are pending again when loaded.
+ */
+public class ConfigurationJobQueue {
+
+    private static final String TAG = "ConfigurationJobQueue";
+
+    private static final int MAGIC = 0x42544A51;
+    private static final int VERSION = 1;
+
+    private static final long SAVE_DELAY = 500;
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final ConfigurationJob.State[] STATES = ConfigurationJob.State.values();
+
+    private final File file;
+    private final ConfigurationLedger ledger;
+
+    private final Map<DeviceFootprint, ConfigurationJob> jobs = new HashMap<>();
+    private final int[] counts = new int[STATES.length];
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private volatile OnJobStateChangedListener listener;
+    private volatile Executor listenerExecutor;
+
+    private final ScheduledExecutorService saveExecutor;
+    private final AtomicBoolean savePending = new AtomicBoolean(false);
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            savePending.set(false);
+            save();
+        }
+    };
+
+    /**
+     * Create queue backed by given file. Content of the file is not read until {@link #load()}
+     * is called.
+     * @param file queue file, may be null
+     * @param ledger configuration applied to devices
+     */
+    public ConfigurationJobQueue(File file, ConfigurationLedger ledger) {
+        this.file = file;
+        this.ledger = ledger;
+        saveExecutor = file != null ? Executors.newSingleThreadScheduledExecutor() : null;
+    }
+
+    /**
+     * Read the queue file. Missing or corrupted file results in an empty queue.
+     */
+    public synchronized void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    Log.w(TAG, "Unsupported configuration job queue, ignore it");
+                    return;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    DeviceFootprint footprint = new DeviceFootprint(in.readUTF(), in.readInt(),
+                            in.readInt());
+                    ConfigurationJob.State state = STATES[in.readByte()];
+                    int attempts = in.readShort();
+                    long updateTime = in.readLong();
+                    int commandsCount = in.readShort();
+                    List<WriteCharacteristicCommand> commands = new ArrayList<>(commandsCount);
+                    for (int j = 0; j < commandsCount; j++) {
+                        commands.add(ConfigurationLedger.readCommand(in));
+                    }
+                    if (state == ConfigurationJob.State.IN_PROGRESS) {
+                        state = ConfigurationJob.State.PENDING;
+                    }
+                    put(new ConfigurationJob(footprint, commands, state, attempts, updateTime));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "Unable to load configuration job queue", e);
+        }
+    }
+
+    /**
+     * Set number of attempts after which a job is failed.
+     * @param maxAttempts max attempts, at least 1
+     */
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid max attempts: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param listener listener notified of every change of job state, null to stop notifications
+     * @param executor executor the listener is invoked on
+     */
+    public void setOnJobStateChangedListener(OnJobStateChangedListener listener,
+                                             Executor executor) {
+        if (listener != null && executor == null) {
+            throw new IllegalArgumentException("Executor is required");
+        }
+        listenerExecutor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Add job configuring device with given commands, replacing previous job of the device.
+     * Job succeeds immediately if device is already configured so. Previous job with the same
+     * commands is kept with its state and attempts.
+     * @param footprint footprint of the device
+     * @param commands desired configuration of the device
+     */
+    public void enqueue(DeviceFootprint footprint, List<WriteCharacteristicCommand> commands) {
+        ConfigurationJob job = createJob(footprint, commands);
+        synchronized (this) {
+            if (!replace(job)) {
+                return;
+            }
+        }
+        onChanged(job);
+    }
+
+    /**
+     * Add jobs of several devices at once.
+     * @param configurations desired configurations by device footprint
+     * @param replace if true, jobs of devices not in given configurations are removed
+     */
+    public void enqueueAll(Map<DeviceFootprint, List<WriteCharacteristicCommand>> configurations,
+                           boolean replace) {
+        List<ConfigurationJob> created = new ArrayList<>(configurations.size());
+        for (Map.Entry<DeviceFootprint, List<WriteCharacteristicCommand>> entry
+                : configurations.entrySet()) {
+            created.add(createJob(entry.getKey(), entry.getValue()));
+        }
+        synchronized (this) {
+            if (replace) {
+                Iterator<ConfigurationJob> iterator = jobs.values().iterator();
+                while (iterator.hasNext()) {
+                    ConfigurationJob job = iterator.next();
+                    if (!configurations.containsKey(job.getFootprint())) {
+                        counts[job.getState().ordinal()]--;
+                        iterator.remove();
+                    }
+                }
+            }
+            Iterator<ConfigurationJob> iterator = created.iterator();
+            while (iterator.hasNext()) {
+                if (!replace(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+        scheduleSave();
+        for (ConfigurationJob job : created) {
+            onChanged(job);
+        }
+    }
+
+    /**
+     * Remove jobs of the devices, e.g. when they are no longer registered.
+     * @param footprints footprints of the devices
+     */
+    public void removeAll(Collection<DeviceFootprint> footprints) {
+        synchronized (this) {
+            for (DeviceFootprint footprint : footprints) {
+                ConfigurationJob job = jobs.remove(footprint);
+                if (job != null) {
+                    counts[job.getState().ordinal()]--;
+                }
+            }
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Claim job of a device detected in configuration mode. Pending job is claimed if device
+     * configuration differs from its commands, succeeded job is claimed again if configuration
+     * of the device was forgotten by the ledger.
+     * @param footprint footprint of the device
+     * @return job in progress, null if device has no job to do
+     */
+    public ConfigurationJob claim(DeviceFootprint footprint) {
+        ConfigurationJob updated;
+        synchronized (this) {
+            ConfigurationJob job = jobs.get(footprint);
+            if (job == null || job.getState() == ConfigurationJob.State.IN_PROGRESS
+                    || job.getState() == ConfigurationJob.State.FAILED) {
+                return null;
+            }
+            boolean upToDate = ledger.diff(footprint, job.getCommands()).isEmpty();
+            if (upToDate && job.getState() == ConfigurationJob.State.SUCCEEDED) {
+                return null;
+            }
+            updated = job.withState(upToDate ? ConfigurationJob.State.SUCCEEDED
+                    : ConfigurationJob.State.IN_PROGRESS, job.getAttempts());
+            put(updated);
+        }
+        onChanged(updated);
+        return updated.getState() == ConfigurationJob.State.IN_PROGRESS ? updated : null;
+    }
+
+    /**
+     * Finish claimed job as succeeded. Ignored if job was replaced in the meantime.
+     * @param job claimed job
+     */
+    public void complete(ConfigurationJob job) {
+        finish(job, true);
+    }
+
+    /**
+     * Finish claimed job as failed attempt. Job is pending again until it fails max attempts
+     * times. Ignored if job was replaced in the meantime.
+     * @param job claimed job
+     */
+    public void fail(ConfigurationJob job) {
+        finish(job, false);
+    }
+
+    /**
+     * Return claimed job to pending state without counting a failed attempt, e.g. when updating
+     * was stopped with the scanner. Ignored if job was replaced in the meantime.
+     * @param job claimed job
+     */
+    public void release(ConfigurationJob job) {
+        ConfigurationJob updated;
+        synchronized (this) {
+            if (jobs.get(job.getFootprint()) != job) {
+                return;
+            }
+            updated = job.withState(ConfigurationJob.State.PENDING, job.getAttempts());
+            put(updated);
+        }
+        onChanged(updated);
+    }
+
+    /**
+     * Make failed jobs pending again with new attempts.
+     */
+    public void retryFailed() {
+        List<ConfigurationJob> retried = new ArrayList<>();
+        synchronized (this) {
+            for (ConfigurationJob job : new ArrayList<>(jobs.values())) {
+                if (job.getState() == ConfigurationJob.State.FAILED) {
+                    ConfigurationJob updated = job.withState(ConfigurationJob.State.PENDING, 0);
+                    put(updated);
+                    retried.add(updated);
+                }
+            }
+        }
+        for (ConfigurationJob job : retried) {
+            onChanged(job);
+        }
+    }
+
+    /**
+     * Remove succeeded jobs, e.g. when a provisioning batch is done. Devices are still not
+     * reconfigured with the same commands, as long as they are recorded in the ledger.
+     */
+    public void clearSucceeded() {
+        synchronized (this) {
+            Iterator<ConfigurationJob> iterator = jobs.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getState() == ConfigurationJob.State.SUCCEEDED) {
+                    iterator.remove();
+                }
+            }
+            counts[ConfigurationJob.State.SUCCEEDED.ordinal()] = 0;
+        }
+        scheduleSave();
+    }
+
+    /**
+     * @param footprint footprint of the device
+     * @return job of the device, null if it has none
+     */
+    public synchronized ConfigurationJob get(DeviceFootprint footprint) {
+        return jobs.get(footprint);
+    }
+
+    public synchronized List<ConfigurationJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * @return number of jobs in every state
+     */
+    public synchronized ConfigurationProgress getProgress() {
+        return new ConfigurationProgress(counts[ConfigurationJob.State.PENDING.ordinal()],
+                counts[ConfigurationJob.State.IN_PROGRESS.ordinal()],
+                counts[ConfigurationJob.State.SUCCEEDED.ordinal()],
+                counts[ConfigurationJob.State.FAILED.ordinal()]);
+    }
+
+    private ConfigurationJob createJob(DeviceFootprint footprint,
+                                       List<WriteCharacteristicCommand> commands) {
+        boolean upToDate = ledger.diff(footprint, commands).isEmpty();
+        return new ConfigurationJob(footprint, commands, upToDate
+                ? ConfigurationJob.State.SUCCEEDED : ConfigurationJob.State.PENDING, 0,
+                System.currentTimeMillis());
+    }
+
+    private void finish(ConfigurationJob job, boolean succeeded) {
+        ConfigurationJob updated;
+        synchronized (this) {
+            if (jobs.get(job.getFootprint()) != job) {
+                return;
+            }
+            if (succeeded) {
+                updated = job.withState(ConfigurationJob.State.SUCCEEDED, job.getAttempts());
+            } else {
+                int attempts = job.getAttempts() + 1;
+                updated = job.withState(attempts < maxAttempts ? ConfigurationJob.State.PENDING
+                        : ConfigurationJob.State.FAILED, attempts);
+            }
+            put(updated);
+        }
+        onChanged(updated);
+    }
+
+    /**
+     * Put new job unless the device has a job with the same commands. Must be called under lock.
+     * @return true if job was put
+     */
+    private boolean replace(ConfigurationJob job) {
+        ConfigurationJob previous = jobs.get(job.getFootprint());
+        if (previous != null && hasSameCommands(previous, job)) {
+            return false;
+        }
+        put(job);
+        return true;
+    }
+
+    private static boolean hasSameCommands(ConfigurationJob first, ConfigurationJob second) {
+        List<WriteCharacteristicCommand> firstCommands = first.getCommands();
+        List<WriteCharacteristicCommand> secondCommands = second.getCommands();
+        if (firstCommands.size() != secondCommands.size()) {
+            return false;
+        }
+        for (int i = 0; i < firstCommands.size(); i++) {
+            if (!firstCommands.get(i).hasSameEffect(secondCommands.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Must be called under lock.
+     */
+    private void put(ConfigurationJob job) {
+        ConfigurationJob previous = jobs.put(job.getFootprint(), job);
+        if (previous != null) {
+            counts[previous.getState().ordinal()]--;
+        }
+        counts[job.getState().ordinal()]++;
+    }
+
+    private void onChanged(final ConfigurationJob job) {
+        scheduleSave();
+        final OnJobStateChangedListener listener = this.listener;
+        Executor executor = listenerExecutor;
+        if (listener != null && executor != null) {
+            final ConfigurationProgress progress = getProgress();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onJobStateChanged(job, progress);
+                }
+            });
+        }
+    }
+
+    private void scheduleSave() {
+        if (saveExecutor != null && savePending.compareAndSet(false, true)) {
+            saveExecutor.schedule(saveTask, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            try {
+                List<ConfigurationJob> snapshot = getJobs();
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (ConfigurationJob job : snapshot) {
+                    DeviceFootprint footprint = job.getFootprint();
+                    out.writeUTF(footprint.getUuid());
+                    out.writeInt(footprint.getMajor());
+                    out.writeInt(footprint.getMinor());
+                    out.writeByte(job.getState().ordinal());
+                    out.writeShort(job.getAttempts());
+                    out.writeLong(job.getUpdateTime());
+                    out.writeShort(job.getCommands().size());
+                    for (WriteCharacteristicCommand command : job.getCommands()) {
+                        ConfigurationLedger.writeCommand(out, command);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                Log.e(TAG, "Unable to replace configuration job queue");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save configuration job queue", e);
+        }
+    }
+
+    public interface OnJobStateChangedListener {
+        /**
+         * @param job job in its new state
+         * @param progress number of jobs in every state after the change
+         */
+        void onJobStateChanged(ConfigurationJob job, ConfigurationProgress progress);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import android.util.Log;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Configuration last applied to every device, by device footprint. Used to compute which
+ * configuration commands still have to be sent to a device, so devices whose configuration is
+ * up to date are not connected at all.
+ * <p>
+ * Ledger is kept in memory and written to a file in background after changes, if a file is given.
+ */
+public class ConfigurationLedger {
+
+    private static final String TAG = "ConfigurationLedger";
+
+    private static final int MAGIC = 0x4254434C;
+    private static final int VERSION = 1;
+
+    private static final long SAVE_DELAY = 500;
+
+    private static final WriteCharacteristicCommand.SwitchState[] SWITCH_STATES =
+            WriteCharacteristicCommand.SwitchState.values();
+
+    private final File file;
+    private final Map<DeviceFootprint, Map<UUID, WriteCharacteristicCommand>> applied =
+            new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService saveExecutor;
+    private final AtomicBoolean savePending = new AtomicBoolean(false);
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            savePending.set(false);
+            save();
+        }
+    };
+
+    /**
+     * Create ledger which is not persisted.
+     */
+    public ConfigurationLedger() {
+        this(null);
+    }
+
+    /**
+     * Create ledger backed by given file. Content of the file is not read until {@link #load()}
+     * is called.
+     * @param file ledger file, may be null
+     */
+    public ConfigurationLedger(File file) {
+        this.file = file;
+        saveExecutor = file != null ? Executors.newSingleThreadScheduledExecutor() : null;
+    }
+
+    /**
+     * Read the ledger file. Missing or corrupted file results in an empty ledger.
+     */
+    public void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    Log.w(TAG, "Unsupported configuration ledger, ignore it");
+                    return;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    DeviceFootprint footprint = new DeviceFootprint(in.readUTF(), in.readInt(),
+                            in.readInt());
+                    int commandsCount = in.readShort();
+                    List<WriteCharacteristicCommand> commands = new ArrayList<>(commandsCount);
+                    for (int j = 0; j < commandsCount; j++) {
+                        commands.add(readCommand(in));
+                    }
+                    applied.put(footprint, index(commands));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "Unable to load configuration ledger", e);
+        }
+    }
+
+    /**
+     * Compute commands which change configuration of the device, i.e. commands for
+     * characteristics which were not configured yet or were configured with another value.
+     * @param footprint footprint of the device
+     * @param commands desired configuration
+     * @return commands to send to the device, empty if configuration is up to date
+     */
+    public List<WriteCharacteristicCommand> diff(DeviceFootprint footprint,
+                                                 List<WriteCharacteristicCommand> commands) {
+        Map<UUID, WriteCharacteristicCommand> current = applied.get(footprint);
+        if (current == null) {
+            return commands;
+        }
+        List<WriteCharacteristicCommand> delta = null;
+        for (int i = 0; i < commands.size(); i++) {
+            WriteCharacteristicCommand command = commands.get(i);
+            WriteCharacteristicCommand previous = current.get(command.getCharacteristicUUID());
+            boolean changed = previous == null || !previous.hasSameEffect(command);
+            if (changed && delta == null) {
+                delta = new ArrayList<>(commands.size() - i);
+            }
+            if (changed) {
+                delta.add(command);
+            }
+        }
+        return delta != null ? delta : Collections.<WriteCharacteristicCommand>emptyList();
+    }
+
+    /**
+     * Record commands successfully applied to the device. Characteristics which are not
+     * affected by the commands keep their recorded configuration.
+     * @param footprint footprint of the device
+     * @param commands applied commands
+     */
+    public void recordApplied(DeviceFootprint footprint, List<WriteCharacteristicCommand> commands) {
+        Map<UUID, WriteCharacteristicCommand> current = applied.get(footprint);
+        Map<UUID, WriteCharacteristicCommand> next = current != null
+                ? new HashMap<>(current) : new HashMap<UUID, WriteCharacteristicCommand>();
+        next.putAll(index(commands));
+        applied.put(footprint, next);
+        scheduleSave();
+    }
+
+    /**
+     * Forget configuration of the device, e.g. if it was reconfigured by another application.
+     * All commands will be sent to the device on its next update.
+     * @param footprint footprint of the device
+     */
+    public void forget(DeviceFootprint footprint) {
+        if (applied.remove(footprint) != null) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Forget configuration of all devices.
+     */
+    public void clear() {
+        applied.clear();
+        scheduleSave();
+    }
+
+    private static Map<UUID, WriteCharacteristicCommand> index(
+            List<WriteCharacteristicCommand> commands) {
+        Map<UUID, WriteCharacteristicCommand> result = new HashMap<>();
+        for (WriteCharacteristicCommand command : commands) {
+            result.put(command.getCharacteristicUUID(), command);
+        }
+        return result;
+    }
+
+    private void scheduleSave() {
+        if (saveExecutor != null && savePending.compareAndSet(false, true)) {
+            saveExecutor.schedule(saveTask, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            try {
+                Map<DeviceFootprint, Map<UUID, WriteCharacteristicCommand>> snapshot =
+                        new HashMap<>(applied);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<DeviceFootprint, Map<UUID, WriteCharacteristicCommand>> entry
+                        : snapshot.entrySet()) {
+                    DeviceFootprint footprint = entry.getKey();
+                    out.writeUTF(footprint.getUuid());
+                    out.writeInt(footprint.getMajor());
+                    out.writeInt(footprint.getMinor());
+                    out.writeShort(entry.getValue().size());
+                    for (WriteCharacteristicCommand command : entry.getValue().values()) {
+                        writeCommand(out, command);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                Log.e(TAG, "Unable to replace configuration ledger");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save configuration ledger", e);
+        }
+    }
+
+    static void writeCommand(DataOutputStream out, WriteCharacteristicCommand command)
+            throws IOException {
+        out.writeLong(command.getServiceUUID().getMostSignificantBits());
+        out.writeLong(command.getServiceUUID().getLeastSignificantBits());
+        out.writeLong(command.getCharacteristicUUID().getMostSignificantBits());
+        out.writeLong(command.getCharacteristicUUID().getLeastSignificantBits());
+        out.writeByte(command.getSwitchState().ordinal());
+        byte[] value = command.getBytesToUpload();
+        out.writeShort(value == null ? -1 : value.length);
+        if (value != null) {
+            out.write(value);
+        }
+    }
+
+    static WriteCharacteristicCommand readCommand(DataInputStream in) throws IOException {
+        UUID service = new UUID(in.readLong(), in.readLong());
+        UUID characteristic = new UUID(in.readLong(), in.readLong());
+        WriteCharacteristicCommand.SwitchState switchState = SWITCH_STATES[in.readByte()];
+        int length = in.readShort();
+        if (length < 0) {
+            return new WriteCharacteristicCommand(service, characteristic,
+                    switchState == WriteCharacteristicCommand.SwitchState.ENABLE);
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return new WriteCharacteristicCommand(service, characteristic, value);
+    }
+}
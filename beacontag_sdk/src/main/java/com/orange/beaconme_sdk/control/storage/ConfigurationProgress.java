@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+/**
+ * Number of configuration jobs in every state.
+ */
+public class ConfigurationProgress {
+
+    private final int pending;
+    private final int inProgress;
+    private final int succeeded;
+    private final int failed;
+
+    ConfigurationProgress(int pending, int inProgress, int succeeded, int failed) {
+        this.pending = pending;
+        this.inProgress = inProgress;
+        this.succeeded = succeeded;
+        this.failed = failed;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    public int getInProgress() {
+        return inProgress;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getTotal() {
+        return pending + inProgress + succeeded + failed;
+    }
+
+    /**
+     * @return true if no job is waiting or running
+     */
+    public boolean isFinished() {
+        return pending == 0 && inProgress == 0;
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import android.util.Log;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.control.time.Clock;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Append-only journal of detections and triggers. Records have a fixed width and are written
+ * into memory-mapped segment files, so appending is a handful of memory writes. When a segment is
+ * full the journal rolls over to the next one, which is mapped in background beforehand, and
+ * the oldest segments above the limit are deleted.
+ * <p>
+ * Record layout (32 bytes, big endian): timestamp (8), uuid (16), major (2), minor (2), rssi (1),
+ * range (1), event type (1), reserved (1). Timestamp is written last, a zero timestamp marks the
+ * end of the written part of a segment.
+ */
+public class DetectionJournal implements Iterable<JournalRecord> {
+
+    private static final String TAG = "DetectionJournal";
+
+    static final int RECORD_SIZE = 32;
+
+    private static final int OFFSET_TIMESTAMP = 0;
+    private static final int OFFSET_UUID_MSB = 8;
+    private static final int OFFSET_UUID_LSB = 16;
+    private static final int OFFSET_MAJOR = 24;
+    private static final int OFFSET_MINOR = 26;
+    private static final int OFFSET_RSSI = 28;
+    private static final int OFFSET_RANGE = 29;
+    private static final int OFFSET_EVENT_TYPE = 30;
+    private static final int OFFSET_WILDCARDS = 31;
+
+    /**
+     * Wildcard flags of region footprints, major and minor fields can't hold ANY.
+     */
+    private static final int WILDCARD_MAJOR = 1;
+    private static final int WILDCARD_MINOR = 2;
+
+    private static final byte NO_RANGE = -1;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Default amount of records in one segment, gives segments of 1 MiB.
+     */
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 32 * 1024;
+
+    /**
+     * Default amount of segments kept on disk.
+     */
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private static final BLERange[] RANGES = BLERange.values();
+
+    private final File directory;
+    private final int recordsPerSegment;
+    private final int maxSegments;
+
+    private final ExecutorService segmentExecutor = Executors.newSingleThreadExecutor();
+    private final ConcurrentHashMap<String, UUID> uuidCache = new ConcurrentHashMap<>();
+
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private int position;
+    private Future<MappedByteBuffer> nextSegment;
+    private boolean closed = false;
+
+    /**
+     * Open journal in given directory with default segment size and segment count.
+     * @param directory directory for segment files, will be created if it does not exist
+     * @throws IOException if segment can't be created or mapped
+     */
+    public DetectionJournal(File directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Open journal in given directory. If directory already contains segments, journal continues
+     * appending after the last written record.
+     * @param directory directory for segment files, will be created if it does not exist
+     * @param recordsPerSegment amount of records in one segment file
+     * @param maxSegments amount of segment files kept on disk, oldest are deleted on rollover
+     * @throws IOException if segment can't be created or mapped
+     */
+    public DetectionJournal(File directory, int recordsPerSegment, int maxSegments)
+            throws IOException {
+        if (recordsPerSegment <= 0 || maxSegments <= 0) {
+            throw new IllegalArgumentException("Segment size and count must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.maxSegments = maxSegments;
+
+        int[] segments = listSegments();
+        segmentIndex = segments.length == 0 ? 0 : segments[segments.length - 1];
+        segment = mapSegment(segmentIndex);
+        position = findWritePosition(segment, recordsPerSegment);
+        if (position >= recordsPerSegment / 2) {
+            prepareNextSegment();
+        }
+    }
+
+    /**
+     * Append detection of a beacon.
+     * @param detection detection to store
+     */
+    public void appendDetection(IBeaconDetect detection) {
+        append(detection.getDetectTime().getTime(), detection.getFootprint(), detection.getRssi(),
+                detection.getRange(), JournalEventType.DETECTION);
+    }
+
+    /**
+     * Append trigger of an event for a beacon.
+     * @param footprint footprint of the beacon that triggered the event
+     */
+    public void appendTrigger(DeviceFootprint footprint) {
+        append(Clock.getDefault().currentTimeMillis(), footprint, 0, null,
+                JournalEventType.TRIGGER);
+    }
+
+    /**
+     * Append a record to the journal.
+     * @param timestamp time of the event in milliseconds since epoch, must be positive
+     * @param footprint footprint of the beacon
+     * @param rssi rssi of the detection
+     * @param range range of the detection, may be null
+     * @param eventType kind of the event
+     */
+    public synchronized void append(long timestamp, DeviceFootprint footprint, int rssi,
+                                    BLERange range, JournalEventType eventType) {
+        if (closed) {
+            return;
+        }
+        UUID uuid = toUuid(footprint.getUuid());
+        if (uuid == null) {
+            return;
+        }
+        if (position == recordsPerSegment && !rollover()) {
+            return;
+        }
+
+        int offset = position * RECORD_SIZE;
+        segment.putLong(offset + OFFSET_UUID_MSB, uuid.getMostSignificantBits());
+        segment.putLong(offset + OFFSET_UUID_LSB, uuid.getLeastSignificantBits());
+        segment.putShort(offset + OFFSET_MAJOR, (short) footprint.getMajor());
+        segment.putShort(offset + OFFSET_MINOR, (short) footprint.getMinor());
+        segment.put(offset + OFFSET_RSSI, (byte) rssi);
+        segment.put(offset + OFFSET_RANGE, range == null ? NO_RANGE : (byte) range.ordinal());
+        segment.put(offset + OFFSET_EVENT_TYPE, (byte) eventType.ordinal());
+        segment.put(offset + OFFSET_WILDCARDS, (byte)
+                ((footprint.getMajor() == DeviceFootprint.ANY ? WILDCARD_MAJOR : 0)
+                        | (footprint.getMinor() == DeviceFootprint.ANY ? WILDCARD_MINOR : 0)));
+        segment.putLong(offset + OFFSET_TIMESTAMP, timestamp);
+        position++;
+
+        if (position == recordsPerSegment / 2) {
+            prepareNextSegment();
+        }
+    }
+
+    /**
+     * Write all appended records to the storage.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Flush and close the journal. Records appended after closing are ignored.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        segment.force();
+        closed = true;
+        segmentExecutor.shutdown();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Iterates over all records currently stored in the journal, from the oldest to the newest.
+     * Records appended after the iterator was created are not visited.
+     * @return iterator over journal records
+     */
+    @Override
+    public synchronized Iterator<JournalRecord> iterator() {
+        ByteBuffer current = segment.duplicate();
+        current.limit(position * RECORD_SIZE);
+        return new JournalIterator(listSegments(), segmentIndex, current);
+    }
+
+    private boolean rollover() {
+        MappedByteBuffer next = null;
+        if (nextSegment != null) {
+            try {
+                next = nextSegment.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "Unable to prepare journal segment", e);
+            }
+            nextSegment = null;
+        }
+        if (next == null) {
+            try {
+                next = mapSegment(segmentIndex + 1);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to map journal segment", e);
+                return false;
+            }
+        }
+
+        final MappedByteBuffer full = segment;
+        segmentIndex++;
+        segment = next;
+        position = 0;
+        segmentExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                full.force();
+                deleteOldSegments();
+            }
+        });
+        return true;
+    }
+
+    private void prepareNextSegment() {
+        final int index = segmentIndex + 1;
+        nextSegment = segmentExecutor.submit(new Callable<MappedByteBuffer>() {
+            @Override
+            public MappedByteBuffer call() throws Exception {
+                return mapSegment(index);
+            }
+        });
+    }
+
+    private void deleteOldSegments() {
+        int[] segments = listSegments();
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segmentFile(segments[i]).delete()) {
+                Log.w(TAG, "Unable to delete journal segment " + segments[i]);
+            }
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(index), "rw");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    (long) recordsPerSegment * RECORD_SIZE);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static MappedByteBuffer mapSegmentForRead(File segmentFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Find first empty record. Records are written sequentially, so empty records form
+     * the tail of the segment.
+     */
+    private static int findWritePosition(ByteBuffer segment, int recordsCount) {
+        int low = 0;
+        int high = recordsCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segment.getLong(middle * RECORD_SIZE + OFFSET_TIMESTAMP) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private File segmentFile(int index) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private int[] listSegments() {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.startsWith(SEGMENT_PREFIX) && filename.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new int[0];
+        }
+        int[] indexes = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                indexes[count] = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Unexpected file in journal directory: " + name);
+            }
+        }
+        indexes = Arrays.copyOf(indexes, count);
+        Arrays.sort(indexes);
+        return indexes;
+    }
+
+    private UUID toUuid(String uuid) {
+        UUID parsed = uuidCache.get(uuid);
+        if (parsed == null) {
+            try {
+                parsed = UUID.fromString(uuid);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Unable to journal footprint with uuid " + uuid);
+                return null;
+            }
+            uuidCache.put(uuid, parsed);
+        }
+        return parsed;
+    }
+
+    private static JournalRecord readRecord(ByteBuffer buffer, int offset) {
+        UUID uuid = new UUID(buffer.getLong(offset + OFFSET_UUID_MSB),
+                buffer.getLong(offset + OFFSET_UUID_LSB));
+        int wildcards = buffer.get(offset + OFFSET_WILDCARDS);
+        DeviceFootprint footprint = new DeviceFootprint(uuid.toString(),
+                (wildcards & WILDCARD_MAJOR) != 0 ? DeviceFootprint.ANY
+                        : buffer.getShort(offset + OFFSET_MAJOR) & 0xFFFF,
+                (wildcards & WILDCARD_MINOR) != 0 ? DeviceFootprint.ANY
+                        : buffer.getShort(offset + OFFSET_MINOR) & 0xFFFF);
+        int range = buffer.get(offset + OFFSET_RANGE);
+        return new JournalRecord(buffer.getLong(offset + OFFSET_TIMESTAMP), footprint,
+                buffer.get(offset + OFFSET_RSSI),
+                range >= 0 && range < RANGES.length ? RANGES[range] : null,
+                JournalEventType.fromCode(buffer.get(offset + OFFSET_EVENT_TYPE)));
+    }
+
+    private class JournalIterator implements Iterator<JournalRecord> {
+        private final int[] segments;
+        private final int currentSegmentIndex;
+        private final ByteBuffer currentSegment;
+
+        private int segmentPosition = 0;
+        private ByteBuffer buffer;
+        private int offset;
+
+        JournalIterator(int[] segments, int currentSegmentIndex, ByteBuffer currentSegment) {
+            this.segments = segments;
+            this.currentSegmentIndex = currentSegmentIndex;
+            this.currentSegment = currentSegment;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (buffer == null || offset + RECORD_SIZE > buffer.limit()
+                    || buffer.getLong(offset + OFFSET_TIMESTAMP) == 0) {
+                if (!openNextSegment()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public JournalRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            JournalRecord record = readRecord(buffer, offset);
+            offset += RECORD_SIZE;
+            return record;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Journal is append-only");
+        }
+
+        private boolean openNextSegment() {
+            while (segmentPosition < segments.length) {
+                int index = segments[segmentPosition++];
+                if (index > currentSegmentIndex) {
+                    break;
+                }
+                offset = 0;
+                if (index == currentSegmentIndex) {
+                    buffer = currentSegment;
+                    return true;
+                }
+                try {
+                    buffer = mapSegmentForRead(segmentFile(index));
+                    return true;
+                } catch (IOException e) {
+                    Log.w(TAG, "Skip unreadable journal segment " + index);
+                }
+            }
+            segmentPosition = segments.length;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+
+/**
+ * Detection state of a registration stored with it, so a restored beacon keeps its range and
+ * cooldown. Times are wall times, since elapsed time restarts with the device.
+ */
+public class HandlerState {
+    private final BLERange range;
+    private final long lastDetectionTime;
+    private final long lastFiredTime;
+
+    /**
+     * @param range current range, null if beacon is not visible
+     * @param lastDetectionTime time of the last detection in milliseconds since epoch, 0 if none
+     * @param lastFiredTime time of the last trigger in milliseconds since epoch, 0 if none
+     */
+    public HandlerState(BLERange range, long lastDetectionTime, long lastFiredTime) {
+        this.range = range;
+        this.lastDetectionTime = lastDetectionTime;
+        this.lastFiredTime = lastFiredTime;
+    }
+
+    public BLERange getRange() {
+        return range;
+    }
+
+    public long getLastDetectionTime() {
+        return lastDetectionTime;
+    }
+
+    public long getLastFiredTime() {
+        return lastFiredTime;
+    }
+}
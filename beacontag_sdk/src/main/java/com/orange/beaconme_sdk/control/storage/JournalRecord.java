@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+/**
+ * Single entry read back from the DetectionJournal.
+ */
+public class JournalRecord {
+    private final long timestamp;
+    private final DeviceFootprint footprint;
+    private final int rssi;
+    private final BLERange range;
+    private final JournalEventType eventType;
+
+    public JournalRecord(long timestamp, DeviceFootprint footprint, int rssi, BLERange range,
+                         JournalEventType eventType) {
+        this.timestamp = timestamp;
+        this.footprint = footprint;
+        this.rssi = rssi;
+        this.range = range;
+        this.eventType = eventType;
+    }
+
+    /**
+     * @return time of the event in milliseconds since epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * @return rssi of the detection, 0 for events without a detection
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * @return range of the detection, null for events without a detection
+     */
+    public BLERange getRange() {
+        return range;
+    }
+
+    public JournalEventType getEventType() {
+        return eventType;
+    }
+}
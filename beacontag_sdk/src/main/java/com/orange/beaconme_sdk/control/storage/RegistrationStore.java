@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import android.util.Log;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.RangeModel;
+import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
+import com.orange.beaconme_sdk.control.model.AreaSettings;
+import com.orange.beaconme_sdk.control.model.BeaconSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Binary snapshot of registered beacons. On load the snapshot file is memory-mapped and only
+ * footprints are read to build an index, settings and configuration commands of a registration
+ * are decoded when they are requested for the first time. Changes are written back to the file
+ * in background, several changes made in a short period of time result in a single write.
+ * <p>
+ * File layout: magic (4), version (4), records count (4), then for every record its length (4)
+ * followed by the record itself. Detection states of the registrations follow the records:
+ * states count (4), then for every state its footprint, range ordinal (1, -1 if none), last
+ * detection time (8) and last trigger time (8). Files written without states are still read.
+ */
+public class RegistrationStore {
+
+    private static final String TAG = "RegistrationStore";
+
+    private static final int MAGIC = 0x42545253;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private static final long SAVE_DELAY = 500;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_TEMPERATURE = 1;
+    private static final int FLAG_ACCELERATION = 1 << 1;
+    private static final int FLAG_ANGULAR_SPEED = 1 << 2;
+    private static final int FLAG_TX_POWER = 1 << 3;
+    private static final int FLAG_ADVERTISING_INTERVAL = 1 << 4;
+
+    private static final AreaSettings[] AREA_SETTINGS = AreaSettings.values();
+    private static final BLERange[] RANGES = BLERange.values();
+    private static final WriteCharacteristicCommand.SwitchState[] SWITCH_STATES =
+            WriteCharacteristicCommand.SwitchState.values();
+
+    private final File file;
+    private final Map<DeviceFootprint, ByteBuffer> records = new ConcurrentHashMap<>();
+    private final Map<DeviceFootprint, HandlerState> states = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService saveExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean savePending = new AtomicBoolean(false);
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            savePending.set(false);
+            save();
+        }
+    };
+
+    /**
+     * Create store backed by given file. Content of the file is not read until {@link #load()}
+     * is called.
+     * @param file snapshot file
+     */
+    public RegistrationStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Map the snapshot file and index its records. Missing or corrupted file results in an
+     * empty store.
+     */
+    public void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            RandomAccessFile snapshot = new RandomAccessFile(file, "r");
+            ByteBuffer buffer;
+            try {
+                buffer = snapshot.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, snapshot.length());
+            } finally {
+                snapshot.close();
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Log.w(TAG, "Unsupported registration snapshot, ignore it");
+                return;
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                buffer.position(buffer.position() + length);
+                records.put(readFootprint(record.duplicate()), record);
+            }
+            if (buffer.remaining() >= 4) {
+                int stateCount = buffer.getInt();
+                for (int i = 0; i < stateCount; i++) {
+                    DeviceFootprint footprint = readFootprint(buffer);
+                    int range = buffer.get();
+                    HandlerState state = new HandlerState(range < 0 ? null : RANGES[range],
+                            buffer.getLong(), buffer.getLong());
+                    if (records.containsKey(footprint)) {
+                        states.put(footprint, state);
+                    }
+                }
+            }
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException e) {
+            Log.e(TAG, "Unable to load registration snapshot", e);
+        }
+    }
+
+    /**
+     * @return footprints of all stored registrations
+     */
+    public Set<DeviceFootprint> getFootprints() {
+        return Collections.unmodifiableSet(records.keySet());
+    }
+
+    public boolean contains(DeviceFootprint footprint) {
+        return records.containsKey(footprint);
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * Decode stored registration.
+     * @param footprint footprint of the registered beacon
+     * @return stored registration, null if there is no registration for the footprint
+     */
+    public StoredRegistration get(DeviceFootprint footprint) {
+        ByteBuffer record = records.get(footprint);
+        if (record == null) {
+            return null;
+        }
+        try {
+            return readRegistration(record.duplicate());
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            Log.e(TAG, "Corrupted registration record, remove it", e);
+            remove(footprint);
+            return null;
+        }
+    }
+
+    /**
+     * @param footprint footprint of the registered beacon
+     * @return stored detection state of the registration, null if there is none
+     */
+    public HandlerState getState(DeviceFootprint footprint) {
+        return states.get(footprint);
+    }
+
+    /**
+     * Store detection state of a stored registration.
+     * @param footprint footprint of the registered beacon
+     * @param state detection state of the registration
+     */
+    public void putState(DeviceFootprint footprint, HandlerState state) {
+        if (records.containsKey(footprint)) {
+            states.put(footprint, state);
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Store registration, replacing previous registration for the same footprint.
+     * @param settings settings of the registered beacon
+     * @param commands configuration commands computed for the settings
+     */
+    public void put(BeaconSettings settings, List<WriteCharacteristicCommand> commands) {
+        records.put(settings.getDeviceFootprint(), ByteBuffer.wrap(encode(settings, commands)));
+        scheduleSave();
+    }
+
+    /**
+     * Remove registration from the store.
+     * @param footprint footprint of the beacon
+     */
+    public void remove(DeviceFootprint footprint) {
+        states.remove(footprint);
+        if (records.remove(footprint) != null) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Remove all registrations from the store.
+     */
+    public void clear() {
+        records.clear();
+        states.clear();
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            saveExecutor.schedule(saveTask, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            try {
+                FileChannel channel = stream.getChannel();
+                List<ByteBuffer> snapshot = new ArrayList<>(records.values());
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(snapshot.size()).flip();
+                writeFully(channel, header);
+                ByteBuffer length = ByteBuffer.allocate(4);
+                for (ByteBuffer record : snapshot) {
+                    ByteBuffer content = record.duplicate();
+                    content.rewind();
+                    length.clear();
+                    length.putInt(content.remaining()).flip();
+                    writeFully(channel, length);
+                    writeFully(channel, content);
+                }
+                writeFully(channel, ByteBuffer.wrap(encodeStates()));
+                channel.force(false);
+            } finally {
+                stream.close();
+            }
+            if (!tmp.renameTo(file)) {
+                Log.e(TAG, "Unable to replace registration snapshot");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save registration snapshot", e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] encode(BeaconSettings settings, List<WriteCharacteristicCommand> commands) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeFootprint(out, settings.getDeviceFootprint());
+            out.writeByte(settings.getAreaSettings().ordinal());
+
+            int flags = 0;
+            if (settings.isTemperatureEnabled()) flags |= FLAG_TEMPERATURE;
+            if (settings.isAccelerationEnabled()) flags |= FLAG_ACCELERATION;
+            if (settings.isAngularSpeedEnabled()) flags |= FLAG_ANGULAR_SPEED;
+            if (settings.isTxPowerEnabled()) flags |= FLAG_TX_POWER;
+            if (settings.isAdvertisingIntervalEnabled()) flags |= FLAG_ADVERTISING_INTERVAL;
+            out.writeByte(flags);
+            out.writeInt(settings.getSleepDelay());
+            out.writeByte(settings.getLowerTemperatureBoundary());
+            out.writeByte(settings.getUpperTemperatureBoundary());
+            out.writeFloat(settings.getAcceleration());
+            out.writeFloat(settings.getAngularSpeed());
+            out.writeByte(settings.getTxPower());
+            out.writeInt(settings.getAdvertisingInterval());
+
+            out.writeShort(commands.size());
+            for (WriteCharacteristicCommand command : commands) {
+                writeUuid(out, command.getServiceUUID());
+                writeUuid(out, command.getCharacteristicUUID());
+                out.writeByte(command.getSwitchState().ordinal());
+                byte[] value = command.getBytesToUpload();
+                out.writeShort(value == null ? -1 : value.length);
+                if (value != null) {
+                    out.write(value);
+                }
+            }
+
+            // Range model trails the record, so records written without it still decode
+            RangeModel rangeModel = settings.getRangeModel();
+            out.writeDouble(rangeModel.getImmediateThreshold());
+            out.writeDouble(rangeModel.getNearThreshold());
+            out.writeDouble(rangeModel.getPathLossExponent());
+            out.writeInt(settings.getRangeHysteresis());
+            out.writeLong(settings.getTriggerCooldown());
+            out.writeBoolean(settings.isPositionEnabled());
+            out.writeDouble(settings.getPositionX());
+            out.writeDouble(settings.getPositionY());
+            out.writeInt(settings.getMaxDetectionRate());
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode registration", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodeStates() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            List<Map.Entry<DeviceFootprint, HandlerState>> snapshot =
+                    new ArrayList<>(states.entrySet());
+            out.writeInt(snapshot.size());
+            for (Map.Entry<DeviceFootprint, HandlerState> entry : snapshot) {
+                writeFootprint(out, entry.getKey());
+                HandlerState state = entry.getValue();
+                out.writeByte(state.getRange() != null ? state.getRange().ordinal() : -1);
+                out.writeLong(state.getLastDetectionTime());
+                out.writeLong(state.getLastFiredTime());
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode detection states", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeFootprint(DataOutputStream out, DeviceFootprint footprint)
+            throws IOException {
+        byte[] uuid = footprint.getUuid().getBytes(UTF_8);
+        out.writeShort(uuid.length);
+        out.write(uuid);
+        out.writeInt(footprint.getMajor());
+        out.writeInt(footprint.getMinor());
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static DeviceFootprint readFootprint(ByteBuffer record) {
+        byte[] uuid = new byte[record.getShort()];
+        record.get(uuid);
+        return new DeviceFootprint(new String(uuid, UTF_8), record.getInt(), record.getInt());
+    }
+
+    private static StoredRegistration readRegistration(ByteBuffer record) {
+        DeviceFootprint footprint = readFootprint(record);
+        BeaconSettings settings = new BeaconSettings(footprint.getUuid(), footprint.getMajor(),
+                footprint.getMinor(), AREA_SETTINGS[record.get()]);
+
+        int flags = record.get();
+        settings.setSleepDelay(record.getInt());
+        byte lowerTemperature = record.get();
+        byte upperTemperature = record.get();
+        float acceleration = record.getFloat();
+        record.getFloat(); // angular speed, can't be set on BeaconSettings
+        byte txPower = record.get();
+        int advertisingInterval = record.getInt();
+        if ((flags & FLAG_TEMPERATURE) != 0) {
+            settings.setTemperatureBoundaries(lowerTemperature, upperTemperature);
+        }
+        if ((flags & FLAG_ACCELERATION) != 0) {
+            settings.setAcceleration(acceleration);
+        }
+        if ((flags & FLAG_TX_POWER) != 0) {
+            settings.setTxPower(txPower);
+        }
+        if ((flags & FLAG_ADVERTISING_INTERVAL) != 0) {
+            settings.setAdvertisingInterval(advertisingInterval);
+        }
+
+        int count = record.getShort();
+        List<WriteCharacteristicCommand> commands = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UUID service = new UUID(record.getLong(), record.getLong());
+            UUID characteristic = new UUID(record.getLong(), record.getLong());
+            WriteCharacteristicCommand.SwitchState switchState = SWITCH_STATES[record.get()];
+            int length = record.getShort();
+            if (length < 0) {
+                commands.add(new WriteCharacteristicCommand(service, characteristic,
+                        switchState == WriteCharacteristicCommand.SwitchState.ENABLE));
+            } else {
+                byte[] value = new byte[length];
+                record.get(value);
+                commands.add(new WriteCharacteristicCommand(service, characteristic, value));
+            }
+        }
+        if (record.remaining() >= 24) {
+            try {
+                settings.setRangeModel(record.getDouble(), record.getDouble(), record.getDouble());
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring invalid range model of " + footprint, e);
+            }
+        }
+        if (record.remaining() >= 12) {
+            settings.setRangeHysteresis(record.getInt());
+            settings.setTriggerCooldown(record.getLong());
+        }
+        if (record.remaining() >= 17) {
+            boolean positionEnabled = record.get() != 0;
+            double x = record.getDouble();
+            double y = record.getDouble();
+            if (positionEnabled) {
+                settings.setPosition(x, y);
+            }
+        }
+        if (record.remaining() >= 4) {
+            settings.setMaxDetectionRate(record.getInt());
+        }
+        return new StoredRegistration(settings, commands);
+    }
+}
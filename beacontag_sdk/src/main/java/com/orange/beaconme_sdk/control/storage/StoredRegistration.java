@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
+import com.orange.beaconme_sdk.control.model.BeaconSettings;
+
+import java.util.List;
+
+/**
+ * Registration restored from the RegistrationStore: beacon settings together with configuration
+ * commands computed for them when beacon was registered.
+ */
+public class StoredRegistration {
+    private final BeaconSettings settings;
+    private final List<WriteCharacteristicCommand> commands;
+
+    public StoredRegistration(BeaconSettings settings, List<WriteCharacteristicCommand> commands) {
+        this.settings = settings;
+        this.commands = commands;
+    }
+
+    public BeaconSettings getSettings() {
+        return settings;
+    }
+
+    public List<WriteCharacteristicCommand> getCommands() {
+        return commands;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.stream;
+
+/**
+ * Defines what happens with events published faster than a subscriber consumes them.
+ */
+public enum BackpressureStrategy {
+    /**
+     * Keep up to capacity of the most recent events, the oldest pending event is dropped when
+     * a new one comes.
+     */
+    DROP_OLDEST,
+    /**
+     * Keep only the most recent pending event of every beacon. Capacity limits number of
+     * beacons with pending events, the oldest one is dropped when a new beacon comes.
+     */
+    LATEST_PER_KEY,
+    /**
+     * Keep all events up to capacity, new events are dropped while the buffer is full.
+     */
+    BUFFER
+}
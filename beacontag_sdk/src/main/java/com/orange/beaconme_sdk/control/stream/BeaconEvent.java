@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.stream;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.time.Clock;
+
+/**
+ * Base class of events published by the Beacon Monitor.
+ */
+public abstract class BeaconEvent {
+
+    private final DeviceFootprint footprint;
+    private final long time;
+
+    protected BeaconEvent(DeviceFootprint footprint) {
+        this.footprint = footprint;
+        this.time = Clock.getDefault().currentTimeMillis();
+    }
+
+    /**
+     * @return footprint of the beacon or region the event is about, events of the same footprint
+     * are merged by LATEST_PER_KEY strategy
+     */
+    public DeviceFootprint getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * @return time the event was published
+     */
+    public long getTime() {
+        return time;
+    }
+}
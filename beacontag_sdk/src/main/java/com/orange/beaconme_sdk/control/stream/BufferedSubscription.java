@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.stream;
+
+import android.util.Log;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription holding pending events of a subscriber. Events are drained by a single task
+ * submitted to the executor of the subscriber when the first pending event comes, so events
+ * are delivered one at a time and at most one task of the subscription is queued.
+ */
+class BufferedSubscription<T extends BeaconEvent> implements Subscription, Runnable {
+
+    private static final String TAG = "BufferedSubscription";
+
+    private final StreamPublisher<T> publisher;
+    private final Subscriber<? super T> subscriber;
+    private final Executor executor;
+    private final BackpressureStrategy strategy;
+    private final int capacity;
+
+    private final ArrayDeque<T> queue;
+    private final LinkedHashMap<DeviceFootprint, T> latest;
+    private boolean draining;
+
+    private volatile boolean cancelled;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    BufferedSubscription(StreamPublisher<T> publisher, Subscriber<? super T> subscriber,
+                         Executor executor, BackpressureStrategy strategy, int capacity) {
+        this.publisher = publisher;
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.strategy = strategy;
+        this.capacity = capacity;
+        if (strategy == BackpressureStrategy.LATEST_PER_KEY) {
+            queue = null;
+            latest = new LinkedHashMap<>();
+        } else {
+            queue = new ArrayDeque<>(Math.min(capacity, 16));
+            latest = null;
+        }
+    }
+
+    void offer(T event) {
+        if (cancelled) {
+            return;
+        }
+        boolean schedule;
+        synchronized (this) {
+            if (!enqueue(event)) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            schedule = !draining;
+            draining = true;
+        }
+        if (schedule) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "Executor rejected delivery, cancelling subscription", e);
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Must be called under lock.
+     * @return false if event was dropped
+     */
+    private boolean enqueue(T event) {
+        switch (strategy) {
+            case LATEST_PER_KEY:
+                DeviceFootprint key = event.getFootprint();
+                if (latest.remove(key) != null) {
+                    droppedCount.incrementAndGet();
+                } else if (latest.size() >= capacity) {
+                    Iterator<T> oldest = latest.values().iterator();
+                    oldest.next();
+                    oldest.remove();
+                    droppedCount.incrementAndGet();
+                }
+                latest.put(key, event);
+                return true;
+            case BUFFER:
+                if (queue.size() >= capacity) {
+                    return false;
+                }
+                queue.add(event);
+                return true;
+            default:
+                if (queue.size() >= capacity) {
+                    queue.poll();
+                    droppedCount.incrementAndGet();
+                }
+                queue.add(event);
+                return true;
+        }
+    }
+
+    /**
+     * Must be called under lock.
+     */
+    private T dequeue() {
+        if (latest != null) {
+            Iterator<T> oldest = latest.values().iterator();
+            if (!oldest.hasNext()) {
+                return null;
+            }
+            T event = oldest.next();
+            oldest.remove();
+            return event;
+        }
+        return queue.poll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            T event;
+            synchronized (this) {
+                event = cancelled ? null : dequeue();
+                if (event == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                subscriber.onNext(event);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Subscriber failed to handle event", e);
+            }
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        publisher.remove(this);
+        synchronized (this) {
+            if (queue != null) {
+                queue.clear();
+            } else {
+                latest.clear();
+            }
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
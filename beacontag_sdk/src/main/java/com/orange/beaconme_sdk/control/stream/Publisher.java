@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.stream;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Source of events which can be subscribed to.
+ * @param <T> type of events
+ */
+public interface Publisher<T> {
+
+    /**
+     * Number of pending events kept by subscriptions created without explicit capacity.
+     */
+    int DEFAULT_CAPACITY = 128;
+
+    /**
+     * Subscribe to events of the publisher.
+     * @param subscriber receiver of the events
+     * @param executor executor delivering events to the subscriber
+     * @param strategy what to do with events the subscriber doesn't keep up with
+     * @param capacity max number of pending events
+     * @return subscription, which can be cancelled
+     */
+    Subscription subscribe(Subscriber<? super T> subscriber, Executor executor,
+                           BackpressureStrategy strategy, int capacity);
+
+    /**
+     * Subscribe to events of the publisher, keeping DEFAULT_CAPACITY most recent pending events.
+     * @param subscriber receiver of the events
+     * @param executor executor delivering events to the subscriber
+     * @return subscription, which can be cancelled
+     */
+    Subscription subscribe(Subscriber<? super T> subscriber, Executor executor);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.stream;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+/**
+ * Range change of a registered beacon or region.
+ */
+public class RangeEvent extends BeaconEvent {
+
+    private final BLERange oldRange;
+    private final BLERange newRange;
+
+    public RangeEvent(DeviceFootprint footprint, BLERange oldRange, BLERange newRange) {
+        super(footprint);
+        this.oldRange = oldRange;
+        this.newRange = newRange;
+    }
+
+    /**
+     * @return previous range, null if beacon was not visible
+     */
+    public BLERange getOldRange() {
+        return oldRange;
+    }
+
+    /**
+     * @return new range, null if beacon is no longer visible
+     */
+    public BLERange getNewRange() {
+        return newRange;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.stream;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Publisher delivering every published event to all current subscriptions. Publishing never
+ * blocks: events a subscriber doesn't keep up with are handled by the backpressure strategy of
+ * its subscription.
+ * @param <T> type of events
+ */
+public class StreamPublisher<T extends BeaconEvent> implements Publisher<T> {
+
+    private final List<BufferedSubscription<T>> subscriptions = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Subscription subscribe(Subscriber<? super T> subscriber, Executor executor,
+                                  BackpressureStrategy strategy, int capacity) {
+        if (subscriber == null || executor == null || strategy == null) {
+            throw new IllegalArgumentException("Subscriber, executor and strategy are required");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        BufferedSubscription<T> subscription =
+                new BufferedSubscription<T>(this, subscriber, executor, strategy, capacity);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    @Override
+    public Subscription subscribe(Subscriber<? super T> subscriber, Executor executor) {
+        return subscribe(subscriber, executor, BackpressureStrategy.DROP_OLDEST, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Check it before creating an event, to avoid creating events nobody receives.
+     * @return true if there is at least one subscription
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * @param event event to deliver to all subscriptions
+     */
+    public void publish(T event) {
+        for (BufferedSubscription<T> subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    void remove(BufferedSubscription<T> subscription) {
+        subscriptions.remove(subscription);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.time;
+
+/**
+ * Source of time and delayed tasks for the detection logic. Intervals are measured with
+ * elapsedRealtime(), which is monotonic, so windows and timeouts are not affected when the wall
+ * clock is changed. Wall time is used only for timestamps reported to the application.
+ */
+public abstract class Clock {
+
+    private static volatile Clock defaultClock = new MonotonicClock();
+
+    /**
+     * @return clock used by components created without explicit clock
+     */
+    public static Clock getDefault() {
+        return defaultClock;
+    }
+
+    /**
+     * Set clock used by components created from now on without explicit clock, e.g. detections
+     * created by frame decoders. BeaconMonitor.init sets its clock as the default one.
+     * @param clock clock to use, null resets the system clock
+     */
+    public static void setDefault(Clock clock) {
+        defaultClock = clock != null ? clock : new MonotonicClock();
+    }
+
+    /**
+     * @return monotonic time in milliseconds, only differences of two values are meaningful
+     */
+    public abstract long elapsedRealtime();
+
+    /**
+     * @return wall time in milliseconds since epoch
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * Run task once after given delay of elapsed time.
+     * @param task task to run
+     * @param delay delay in milliseconds
+     * @return scheduled task, which can be cancelled
+     */
+    public abstract ScheduledTask schedule(Runnable task, long delay);
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.time;
+
+import java.util.PriorityQueue;
+
+/**
+ * Clock which moves only when advanced, for tests and for replaying recorded detections faster
+ * than real time. Scheduled tasks run on the thread calling advance, in order of their time.
+ */
+public class VirtualClock extends Clock {
+
+    private final PriorityQueue<VirtualTask> tasks = new PriorityQueue<>();
+    private long elapsed;
+    private long wallOffset;
+    private long sequence;
+
+    /**
+     * Create clock starting at elapsed time 0.
+     * @param currentTimeMillis initial wall time in milliseconds since epoch
+     */
+    public VirtualClock(long currentTimeMillis) {
+        wallOffset = currentTimeMillis;
+    }
+
+    @Override
+    public synchronized long elapsedRealtime() {
+        return elapsed;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return wallOffset + elapsed;
+    }
+
+    /**
+     * Change wall time without moving elapsed time, as if the wall clock was adjusted.
+     * @param currentTimeMillis new wall time in milliseconds since epoch
+     */
+    public synchronized void setCurrentTimeMillis(long currentTimeMillis) {
+        wallOffset = currentTimeMillis - elapsed;
+    }
+
+    @Override
+    public synchronized ScheduledTask schedule(Runnable task, long delay) {
+        VirtualTask scheduled = new VirtualTask(task, elapsed + Math.max(0, delay), sequence++);
+        tasks.add(scheduled);
+        return scheduled;
+    }
+
+    /**
+     * Move time forward, running tasks which become due. Tasks scheduled by running tasks are
+     * run as well if they are due within the advanced time.
+     * @param millis time to advance by in milliseconds
+     */
+    public void advance(long millis) {
+        long target;
+        synchronized (this) {
+            target = elapsed + millis;
+        }
+        while (true) {
+            VirtualTask task;
+            synchronized (this) {
+                task = tasks.peek();
+                if (task == null || task.time > target) {
+                    elapsed = target;
+                    return;
+                }
+                tasks.poll();
+                elapsed = Math.max(elapsed, task.time);
+            }
+            if (!task.cancelled) {
+                task.task.run();
+            }
+        }
+    }
+
+    /**
+     * @return number of scheduled tasks which did not run yet, including cancelled ones
+     */
+    public synchronized int getPendingCount() {
+        return tasks.size();
+    }
+
+    private static class VirtualTask implements ScheduledTask, Comparable<VirtualTask> {
+        final Runnable task;
+        final long time;
+        final long sequence;
+        volatile boolean cancelled;
+
+        VirtualTask(Runnable task, long time, long sequence) {
+            this.task = task;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(VirtualTask other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+        }
+    }
+}
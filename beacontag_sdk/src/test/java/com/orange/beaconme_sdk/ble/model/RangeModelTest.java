@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.ble.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RangeModelTest {
+
+    private static final int TX_POWER = -59;
+
+    /**
+     * @return rssi of a detection with given path loss
+     */
+    private static int rssi(int pathLoss) {
+        return TX_POWER - pathLoss;
+    }
+
+    @Test
+    public void cutPointsOfDefaultModel() {
+        RangeModel model = RangeModel.DEFAULT;
+        assertEquals(BLERange.IMMIDIATE, model.getRange(TX_POWER, rssi(0)));
+        assertEquals(BLERange.NEAR, model.getRange(TX_POWER, rssi(1)));
+        assertEquals(BLERange.NEAR, model.getRange(TX_POWER, rssi(20)));
+        assertEquals(BLERange.FAR, model.getRange(TX_POWER, rssi(21)));
+    }
+
+    @Test
+    public void cutPointsMatchEstimatedDistance() {
+        RangeModel model = new RangeModel(2, 5, 3);
+        for (int pathLoss = -10; pathLoss <= 40; pathLoss++) {
+            double distance = model.getDistance(TX_POWER, rssi(pathLoss));
+            BLERange expected = distance <= 2 ? BLERange.IMMIDIATE
+                    : distance <= 5 ? BLERange.NEAR : BLERange.FAR;
+            assertEquals("path loss " + pathLoss, expected,
+                    model.getRange(TX_POWER, rssi(pathLoss)));
+        }
+    }
+
+    @Test
+    public void hysteresisKeepsRangeWithinMargin() {
+        RangeModel model = RangeModel.DEFAULT;
+        assertEquals(BLERange.NEAR, model.getRange(TX_POWER, rssi(23), BLERange.NEAR, 3));
+        assertEquals(BLERange.FAR, model.getRange(TX_POWER, rssi(24), BLERange.NEAR, 3));
+        assertEquals(BLERange.NEAR, model.getRange(TX_POWER, rssi(-2), BLERange.NEAR, 3));
+        assertEquals(BLERange.IMMIDIATE, model.getRange(TX_POWER, rssi(-3), BLERange.NEAR, 3));
+
+        assertEquals(BLERange.IMMIDIATE, model.getRange(TX_POWER, rssi(3), BLERange.IMMIDIATE, 3));
+        assertEquals(BLERange.NEAR, model.getRange(TX_POWER, rssi(4), BLERange.IMMIDIATE, 3));
+
+        assertEquals(BLERange.FAR, model.getRange(TX_POWER, rssi(18), BLERange.FAR, 3));
+        assertEquals(BLERange.NEAR, model.getRange(TX_POWER, rssi(17), BLERange.FAR, 3));
+    }
+
+    @Test
+    public void hysteresisLeavesRangeToClassifiedRange() {
+        RangeModel model = RangeModel.DEFAULT;
+        assertEquals(BLERange.NEAR, model.getRange(TX_POWER, rssi(4), BLERange.FAR, 3));
+        assertEquals(BLERange.FAR, model.getRange(TX_POWER, rssi(30), BLERange.IMMIDIATE, 3));
+        assertEquals(BLERange.IMMIDIATE, model.getRange(TX_POWER, rssi(-5), BLERange.FAR, 3));
+    }
+
+    @Test
+    public void noHysteresisWithoutCurrentRangeOrMargin() {
+        RangeModel model = RangeModel.DEFAULT;
+        assertEquals(BLERange.FAR, model.getRange(TX_POWER, rssi(21), null, 3));
+        assertEquals(BLERange.FAR, model.getRange(TX_POWER, rssi(21), BLERange.NEAR, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidThresholds() {
+        new RangeModel(10, 1, 2);
+    }
+}
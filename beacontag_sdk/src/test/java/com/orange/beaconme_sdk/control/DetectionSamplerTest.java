@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.IBeaconDetect;
+import com.orange.beaconme_sdk.ble.model.SampledDetect;
+import com.orange.beaconme_sdk.control.time.Clock;
+import com.orange.beaconme_sdk.control.time.VirtualClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionSamplerTest {
+
+    private static final String UUID_A = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+    private static final String UUID_B = "b9407f30-f5f8-466e-aff9-25556b57fe6d";
+
+    private VirtualClock clock;
+    private DetectionSampler sampler;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock(1000000);
+        Clock.setDefault(clock);
+        sampler = new DetectionSampler();
+    }
+
+    @After
+    public void tearDown() {
+        Clock.setDefault(null);
+    }
+
+    private static IBeaconDetect detect(String uuid, int rssi) {
+        return new IBeaconDetect(uuid, 1, 2, rssi, -59);
+    }
+
+    @Test
+    public void admitsAllWithoutRate() {
+        for (int i = 0; i < 10; i++) {
+            IBeaconDetect detection = detect(UUID_A, -70);
+            assertSame(detection, sampler.admit(detection, 0));
+        }
+        assertEquals(0, sampler.getSampledOutCount());
+    }
+
+    @Test
+    public void foldsDetectionsWithinPeriod() {
+        IBeaconDetect first = detect(UUID_A, -70);
+        assertSame(first, sampler.admit(first, 2));
+
+        clock.advance(100);
+        assertNull(sampler.admit(detect(UUID_A, -60), 2));
+        clock.advance(100);
+        assertNull(sampler.admit(detect(UUID_A, -80), 2));
+        clock.advance(300);
+        IBeaconDetect latest = detect(UUID_A, -73);
+        IBeaconDetect admitted = sampler.admit(latest, 2);
+
+        assertNotNull(admitted);
+        assertTrue(admitted instanceof SampledDetect);
+        SampledDetect sample = (SampledDetect) admitted;
+        assertEquals(-71, sample.getRssi());
+        assertEquals(-60, sample.getMaxRssi());
+        assertEquals(3, sample.getSampleCount());
+        assertEquals(latest.getElapsedTime(), sample.getElapsedTime());
+        assertEquals(500, sample.getElapsedTime());
+        assertEquals(2, sampler.getSampledOutCount());
+    }
+
+    @Test
+    public void periodIsMeasuredByDetectionTime() {
+        IBeaconDetect first = detect(UUID_A, -70);
+        clock.advance(1000);
+        IBeaconDetect second = detect(UUID_A, -70);
+        // Detections admitted late keep the time they were received at
+        assertSame(first, sampler.admit(first, 2));
+        assertNotNull(sampler.admit(second, 2));
+    }
+
+    @Test
+    public void samplesBeaconsIndependently() {
+        assertNotNull(sampler.admit(detect(UUID_A, -70), 1));
+        assertNotNull(sampler.admit(detect(UUID_B, -70), 1));
+        assertNull(sampler.admit(detect(UUID_A, -70), 1));
+        assertNull(sampler.admit(detect(UUID_B, -70), 1));
+    }
+
+    @Test
+    public void removedBeaconIsAdmittedAgain() {
+        IBeaconDetect first = detect(UUID_A, -70);
+        assertNotNull(sampler.admit(first, 1));
+        sampler.remove(first.getFootprint());
+        assertNotNull(sampler.admit(detect(UUID_A, -70), 1));
+    }
+}
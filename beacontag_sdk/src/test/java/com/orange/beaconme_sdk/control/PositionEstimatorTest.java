@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.time.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PositionEstimatorTest {
+
+    private static final String UUID = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+
+    private static final DeviceFootprint A = new DeviceFootprint(UUID, 1, 1);
+    private static final DeviceFootprint B = new DeviceFootprint(UUID, 1, 2);
+    private static final DeviceFootprint C = new DeviceFootprint(UUID, 1, 3);
+    private static final DeviceFootprint D = new DeviceFootprint(UUID, 1, 4);
+
+    private static final double DELTA = 1e-3;
+
+    private VirtualClock clock;
+    private PositionEstimator estimator;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock(1000000);
+        estimator = new PositionEstimator();
+    }
+
+    /**
+     * Update beacon at given coordinates with exact distance to given position.
+     */
+    private void detect(DeviceFootprint footprint, double x, double y, double phoneX,
+                        double phoneY) {
+        double distance = Math.hypot(phoneX - x, phoneY - y);
+        estimator.update(footprint, x, y, distance, clock.elapsedRealtime());
+    }
+
+    @Test
+    public void solvesPositionFromThreeBeacons() {
+        detect(A, 0, 0, 3, 4);
+        detect(B, 10, 0, 3, 4);
+        assertNull(estimator.getPosition());
+        detect(C, 0, 10, 3, 4);
+
+        Position position = estimator.getPosition();
+        assertNotNull(position);
+        assertEquals(3, position.getX(), DELTA);
+        assertEquals(4, position.getY(), DELTA);
+        assertEquals(0, position.getAccuracy(), DELTA);
+        assertEquals(3, position.getBeaconCount());
+        assertEquals(clock.elapsedRealtime(), position.getTime());
+    }
+
+    @Test
+    public void refinesNoisyDistances() {
+        estimator.update(A, 0, 0, 5.2, 0);
+        estimator.update(B, 10, 0, 7.9, 0);
+        estimator.update(C, 0, 10, 6.6, 0);
+        estimator.update(D, 10, 10, 9.1, 0);
+
+        Position position = estimator.getPosition();
+        assertNotNull(position);
+        assertEquals(4, position.getBeaconCount());
+        assertEquals(3, position.getX(), 0.3);
+        assertEquals(4, position.getY(), 0.3);
+    }
+
+    @Test
+    public void ignoresCollinearBeacons() {
+        detect(A, 0, 0, 3, 4);
+        detect(B, 5, 0, 3, 4);
+        detect(C, 10, 0, 3, 4);
+        assertNull(estimator.getPosition());
+    }
+
+    @Test
+    public void ignoresExpiredDistances() {
+        detect(A, 0, 0, 3, 4);
+        detect(B, 10, 0, 3, 4);
+        clock.advance(10 * 1000 + 1);
+        detect(C, 0, 10, 3, 4);
+        assertNull(estimator.getPosition());
+
+        detect(A, 0, 0, 3, 4);
+        detect(B, 10, 0, 3, 4);
+        assertNotNull(estimator.getPosition());
+    }
+
+    @Test
+    public void notifiesListener() {
+        final List<Position> positions = new ArrayList<>();
+        estimator.setOnPositionChangedListener(new PositionEstimator.OnPositionChangedListener() {
+            @Override
+            public void onPositionChanged(Position position) {
+                positions.add(position);
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        detect(A, 0, 0, 3, 4);
+        detect(B, 10, 0, 3, 4);
+        detect(C, 0, 10, 3, 4);
+        detect(C, 0, 10, 3, 4);
+
+        assertEquals(2, positions.size());
+        assertEquals(3, positions.get(1).getX(), DELTA);
+    }
+}
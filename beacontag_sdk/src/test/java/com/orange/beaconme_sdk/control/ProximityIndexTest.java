@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.time.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProximityIndexTest {
+
+    private static final String UUID = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+
+    private static final DeviceFootprint A = new DeviceFootprint(UUID, 1, 1);
+    private static final DeviceFootprint B = new DeviceFootprint(UUID, 1, 2);
+    private static final DeviceFootprint C = new DeviceFootprint(UUID, 1, 3);
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private VirtualClock clock;
+    private ProximityIndex index;
+    private List<List<DeviceFootprint>> rankings;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock(1000000);
+        index = new ProximityIndex(clock);
+        rankings = new ArrayList<>();
+    }
+
+    private void detect(DeviceFootprint footprint, float filteredRssi) {
+        index.update(new BeaconState(footprint, filteredRssi, Math.round(filteredRssi), -59,
+                BLERange.NEAR, clock.elapsedRealtime(), 1, null));
+    }
+
+    private void watch(int count) {
+        index.setOnRankingChangedListener(new ProximityIndex.OnRankingChangedListener() {
+            @Override
+            public void onRankingChanged(List<BeaconState> nearest) {
+                rankings.add(footprints(nearest));
+            }
+        }, count, SAME_THREAD);
+    }
+
+    private static List<DeviceFootprint> footprints(List<BeaconState> states) {
+        List<DeviceFootprint> footprints = new ArrayList<>();
+        for (BeaconState state : states) {
+            footprints.add(state.getFootprint());
+        }
+        return footprints;
+    }
+
+    @Test
+    public void ranksByPathLoss() {
+        detect(A, -70);
+        detect(B, -60);
+        detect(C, -80);
+
+        assertEquals(Arrays.asList(B, A), footprints(index.getNearest(2)));
+        assertEquals(Arrays.asList(B, A, C), footprints(index.getNearest(5)));
+        assertEquals(B, index.getNearest().getFootprint());
+
+        detect(A, -55);
+        assertEquals(Arrays.asList(A, B, C), footprints(index.getNearest(3)));
+    }
+
+    @Test
+    public void dropsBeaconsNotSeenRecently() {
+        detect(A, -60);
+        clock.advance(20 * 1000);
+        detect(B, -70);
+        clock.advance(15 * 1000);
+
+        assertEquals(Arrays.asList(B), footprints(index.getNearest(3)));
+        clock.advance(20 * 1000);
+        assertNull(index.getNearest());
+    }
+
+    @Test
+    public void removedBeaconIsNotRanked() {
+        detect(A, -60);
+        detect(B, -70);
+        index.remove(A);
+        assertEquals(Arrays.asList(B), footprints(index.getNearest(3)));
+    }
+
+    @Test
+    public void notifiesRankingChanges() {
+        watch(2);
+        detect(A, -70);
+        detect(B, -60);
+        // Same dB does not move the beacon
+        detect(B, -60.2f);
+        // Beyond the watched beacons
+        detect(C, -80);
+
+        assertEquals(Arrays.asList(Arrays.asList(A), Arrays.asList(B, A)), rankings);
+    }
+
+    @Test
+    public void notifiesExpiryWithoutDetections() {
+        watch(2);
+        detect(A, -70);
+        detect(B, -60);
+        clock.advance(10 * 1000);
+        detect(C, -80);
+        rankings.clear();
+
+        clock.advance(20 * 1000);
+        assertEquals(0, rankings.size());
+        clock.advance(1);
+        assertEquals(Arrays.asList(Arrays.asList(C)), rankings);
+
+        clock.advance(10 * 1000);
+        assertEquals(Arrays.asList(Arrays.asList(C), Arrays.<DeviceFootprint>asList()), rankings);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCount() {
+        index.getNearest(0);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control;
+
+import com.orange.beaconme_sdk.control.time.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TriggerRateLimiterTest {
+
+    private VirtualClock clock;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock(1000000);
+    }
+
+    @Test
+    public void allowsBurstThenLimits() {
+        TriggerRateLimiter limiter = new TriggerRateLimiter(3, 1, clock);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void refillsAtGivenRate() {
+        TriggerRateLimiter limiter = new TriggerRateLimiter(1, 2, clock);
+        assertTrue(limiter.tryAcquire());
+        clock.advance(499);
+        assertFalse(limiter.tryAcquire());
+        clock.advance(1);
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void refillIsCappedByBurst() {
+        TriggerRateLimiter limiter = new TriggerRateLimiter(2, 1, clock);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        clock.advance(60 * 1000);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRate() {
+        new TriggerRateLimiter(0, 1, clock);
+    }
+}
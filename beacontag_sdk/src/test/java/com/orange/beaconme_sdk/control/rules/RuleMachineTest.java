@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.rules;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.control.time.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RuleMachineTest {
+
+    private static final String UUID = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+
+    private static final DeviceFootprint A = new DeviceFootprint(UUID, 1, 1);
+    private static final DeviceFootprint B = new DeviceFootprint(UUID, 1, 2);
+
+    private VirtualClock clock;
+    private RuleEngine engine;
+    private List<String> fired;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock(localTime(10, 0));
+        fired = new ArrayList<>();
+        engine = new RuleEngine(new RuleEngine.OnRuleFiredListener() {
+            @Override
+            public void onRuleFired(String ruleId, DeviceFootprint footprint) {
+                fired.add(ruleId);
+            }
+        }, clock);
+    }
+
+    private static long localTime(int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2015, Calendar.JUNE, 8, hour, minute, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void firesOnEnterWithoutDwell() {
+        engine.addRule(Rule.enter("enter", A, BLERange.NEAR));
+        engine.onRangeChanged(A, null, BLERange.FAR);
+        assertEquals(0, fired.size());
+        engine.onRangeChanged(A, BLERange.FAR, BLERange.NEAR);
+        // Moving within the range does not fire again
+        engine.onRangeChanged(A, BLERange.NEAR, BLERange.IMMIDIATE);
+        assertEquals(Arrays.asList("enter"), fired);
+    }
+
+    @Test
+    public void firesOnExitIncludingInvisibility() {
+        engine.addRule(Rule.exit("exit", A, BLERange.NEAR));
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        assertEquals(0, fired.size());
+        engine.onRangeChanged(A, BLERange.NEAR, null);
+        assertEquals(Arrays.asList("exit"), fired);
+    }
+
+    @Test
+    public void firesAfterDwell() {
+        engine.addRule(Rule.enter("dwell", A, BLERange.NEAR).dwell(5000));
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        clock.advance(4999);
+        assertEquals(0, fired.size());
+        clock.advance(1);
+        assertEquals(Arrays.asList("dwell"), fired);
+        clock.advance(10 * 1000);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void leavingDuringDwellCancelsIt() {
+        engine.addRule(Rule.enter("dwell", A, BLERange.NEAR).dwell(5000));
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        clock.advance(3000);
+        engine.onRangeChanged(A, BLERange.NEAR, BLERange.FAR);
+        clock.advance(3000);
+        engine.onRangeChanged(A, BLERange.FAR, BLERange.NEAR);
+        clock.advance(4999);
+        assertEquals(0, fired.size());
+        clock.advance(1);
+        assertEquals(Arrays.asList("dwell"), fired);
+    }
+
+    @Test
+    public void removedRuleDoesNotFire() {
+        engine.addRule(Rule.enter("dwell", A, BLERange.NEAR).dwell(5000));
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        engine.removeRule("dwell");
+        clock.advance(10 * 1000);
+        assertEquals(0, fired.size());
+    }
+
+    @Test
+    public void firesWithinPredecessorWindow() {
+        engine.addRule(Rule.enter("sequence", B, BLERange.NEAR).after(A, BLERange.FAR, 30000));
+        engine.onRangeChanged(A, null, BLERange.FAR);
+        clock.advance(30000);
+        engine.onRangeChanged(B, null, BLERange.NEAR);
+        assertEquals(Arrays.asList("sequence"), fired);
+    }
+
+    @Test
+    public void ignoresLatePredecessor() {
+        engine.addRule(Rule.enter("sequence", B, BLERange.NEAR).after(A, BLERange.FAR, 30000));
+        engine.onRangeChanged(A, null, BLERange.FAR);
+        clock.advance(30001);
+        engine.onRangeChanged(B, null, BLERange.NEAR);
+        assertEquals(0, fired.size());
+    }
+
+    @Test
+    public void requiresPredecessorBeforeCondition() {
+        engine.addRule(Rule.enter("sequence", B, BLERange.NEAR).dwell(5000)
+                .after(A, BLERange.FAR, 30000));
+        engine.onRangeChanged(B, null, BLERange.NEAR);
+        clock.advance(1000);
+        engine.onRangeChanged(A, null, BLERange.FAR);
+        clock.advance(5000);
+        assertEquals(0, fired.size());
+
+        engine.onRangeChanged(B, BLERange.NEAR, null);
+        engine.onRangeChanged(B, null, BLERange.NEAR);
+        clock.advance(5000);
+        assertEquals(Arrays.asList("sequence"), fired);
+    }
+
+    @Test
+    public void cooldownSuppressesRepeatedEvents() {
+        engine.addRule(Rule.enter("cooldown", A, BLERange.NEAR).cooldown(60 * 1000));
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        engine.onRangeChanged(A, BLERange.NEAR, null);
+        clock.advance(59999);
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        assertEquals(1, fired.size());
+
+        engine.onRangeChanged(A, BLERange.NEAR, null);
+        clock.advance(1);
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        assertEquals(2, fired.size());
+    }
+
+    @Test
+    public void firesWithinTimeWindow() {
+        engine.addRule(Rule.enter("morning", A, BLERange.NEAR).between(9 * 60, 11 * 60));
+        engine.addRule(Rule.enter("noon", A, BLERange.NEAR).between(12 * 60, 13 * 60));
+        engine.addRule(Rule.enter("night", A, BLERange.NEAR).between(22 * 60, 2 * 60));
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        assertEquals(Arrays.asList("morning"), fired);
+
+        fired.clear();
+        engine.onRangeChanged(A, BLERange.NEAR, null);
+        clock.setCurrentTimeMillis(localTime(23, 30));
+        engine.onRangeChanged(A, null, BLERange.NEAR);
+        assertEquals(Arrays.asList("night"), fired);
+    }
+}
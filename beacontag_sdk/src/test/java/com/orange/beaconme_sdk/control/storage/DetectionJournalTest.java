@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionJournalTest {
+
+    private static final String UUID = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+    private static final DeviceFootprint BEACON = new DeviceFootprint(UUID, 1, 2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void append(DetectionJournal journal, long from, long to) {
+        for (long timestamp = from; timestamp <= to; timestamp++) {
+            journal.append(timestamp, BEACON, -70, BLERange.NEAR, JournalEventType.DETECTION);
+        }
+    }
+
+    private static List<Long> timestamps(DetectionJournal journal) {
+        List<Long> timestamps = new ArrayList<>();
+        for (JournalRecord record : journal) {
+            timestamps.add(record.getTimestamp());
+        }
+        return timestamps;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> range = new ArrayList<>();
+        for (long timestamp = from; timestamp <= to; timestamp++) {
+            range.add(timestamp);
+        }
+        return range;
+    }
+
+    @Test
+    public void readsAppendedRecords() throws IOException {
+        DetectionJournal journal = new DetectionJournal(folder.newFolder(), 8, 4);
+        journal.append(100, BEACON, -65, BLERange.IMMIDIATE, JournalEventType.DETECTION);
+        journal.append(101, new DeviceFootprint(UUID, 7, DeviceFootprint.ANY), 0, null,
+                JournalEventType.TRIGGER);
+        journal.append(102, new DeviceFootprint("not a uuid", 1, 1), -70, null,
+                JournalEventType.DETECTION);
+
+        List<JournalRecord> records = new ArrayList<>();
+        for (JournalRecord record : journal) {
+            records.add(record);
+        }
+        journal.close();
+
+        assertEquals(2, records.size());
+        JournalRecord detection = records.get(0);
+        assertEquals(100, detection.getTimestamp());
+        assertEquals(BEACON, detection.getFootprint());
+        assertEquals(-65, detection.getRssi());
+        assertEquals(BLERange.IMMIDIATE, detection.getRange());
+        assertEquals(JournalEventType.DETECTION, detection.getEventType());
+
+        JournalRecord trigger = records.get(1);
+        assertEquals(101, trigger.getTimestamp());
+        assertEquals(new DeviceFootprint(UUID, 7, DeviceFootprint.ANY), trigger.getFootprint());
+        assertNull(trigger.getRange());
+        assertEquals(JournalEventType.TRIGGER, trigger.getEventType());
+    }
+
+    @Test
+    public void reopenedJournalContinuesAfterLastRecord() throws IOException {
+        File directory = folder.newFolder();
+        DetectionJournal journal = new DetectionJournal(directory, 8, 4);
+        append(journal, 1, 3);
+        journal.close();
+
+        journal = new DetectionJournal(directory, 8, 4);
+        assertEquals(range(1, 3), timestamps(journal));
+        append(journal, 4, 6);
+        journal.close();
+
+        journal = new DetectionJournal(directory, 8, 4);
+        assertEquals(range(1, 6), timestamps(journal));
+        journal.close();
+    }
+
+    @Test
+    public void reopenedJournalSkipsEmptyTailOfSegment() throws IOException {
+        File directory = folder.newFolder();
+        DetectionJournal journal = new DetectionJournal(directory, 8, 4);
+        // Half of the segment prepares the next one, which is the last segment on reopen
+        append(journal, 1, 5);
+        journal.close();
+
+        journal = new DetectionJournal(directory, 8, 4);
+        append(journal, 6, 7);
+        assertEquals(range(1, 7), timestamps(journal));
+        journal.close();
+    }
+
+    @Test
+    public void rolloverDeletesOldestSegments() throws Exception {
+        File directory = folder.newFolder();
+        DetectionJournal journal = new DetectionJournal(directory, 4, 2);
+        append(journal, 1, 10);
+
+        File first = new File(directory, "journal-00000000.seg");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (first.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(first.exists());
+        assertTrue(new File(directory, "journal-00000001.seg").exists());
+        assertEquals(range(5, 10), timestamps(journal));
+        journal.close();
+    }
+
+    @Test
+    public void ignoresRecordsAfterClose() throws IOException {
+        File directory = folder.newFolder();
+        DetectionJournal journal = new DetectionJournal(directory, 8, 4);
+        append(journal, 1, 2);
+        journal.close();
+        append(journal, 3, 4);
+        assertEquals(range(1, 2), timestamps(journal));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.storage;
+
+import com.orange.beaconme_sdk.ble.model.BLERange;
+import com.orange.beaconme_sdk.ble.model.DeviceFootprint;
+import com.orange.beaconme_sdk.ble.model.WriteCharacteristicCommand;
+import com.orange.beaconme_sdk.control.model.AreaSettings;
+import com.orange.beaconme_sdk.control.model.BeaconSettings;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RegistrationStoreTest {
+
+    private static final String BEACON_UUID = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+    private static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC =
+            UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Wait for the delayed save of the store, snapshot is renamed into place when complete.
+     */
+    private static void awaitSnapshot(File file) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws Exception {
+        File file = new File(folder.getRoot(), "registrations.bin");
+        RegistrationStore store = new RegistrationStore(file);
+
+        BeaconSettings settings = new BeaconSettings(BEACON_UUID, 1, 2, AreaSettings.APPROACHING);
+        settings.setSleepDelay(30);
+        settings.setRangeModel(2, 5, 3);
+        settings.setRangeHysteresis(3);
+        settings.setTriggerCooldown(60 * 1000);
+        settings.setMaxDetectionRate(5);
+        settings.setPosition(1.5, -2);
+        List<WriteCharacteristicCommand> commands = Arrays.asList(
+                new WriteCharacteristicCommand(SERVICE, CHARACTERISTIC, true),
+                new WriteCharacteristicCommand(SERVICE, CHARACTERISTIC, new byte[]{1, 2, 3}));
+        store.put(settings, commands);
+
+        BeaconSettings region = BeaconSettings.forRegion(BEACON_UUID, AreaSettings.ENTER);
+        store.put(region, Collections.<WriteCharacteristicCommand>emptyList());
+
+        DeviceFootprint footprint = settings.getDeviceFootprint();
+        store.putState(footprint, new HandlerState(BLERange.NEAR, 1000L, 2000L));
+        store.putState(region.getDeviceFootprint(), new HandlerState(null, 3000L, 0));
+        // State of a footprint without registration is not stored
+        store.putState(new DeviceFootprint(BEACON_UUID, 9, 9), new HandlerState(null, 1, 1));
+        awaitSnapshot(file);
+
+        RegistrationStore loaded = new RegistrationStore(file);
+        loaded.load();
+        assertEquals(2, loaded.getFootprints().size());
+
+        StoredRegistration registration = loaded.get(footprint);
+        assertNotNull(registration);
+        BeaconSettings restored = registration.getSettings();
+        assertEquals(footprint, restored.getDeviceFootprint());
+        assertEquals(AreaSettings.APPROACHING, restored.getAreaSettings());
+        assertEquals(30, restored.getSleepDelay());
+        assertEquals(settings.getRangeModel(), restored.getRangeModel());
+        assertEquals(3, restored.getRangeHysteresis());
+        assertEquals(60 * 1000, restored.getTriggerCooldown());
+        assertEquals(5, restored.getMaxDetectionRate());
+        assertTrue(restored.isPositionEnabled());
+        assertEquals(1.5, restored.getPositionX(), 0);
+        assertEquals(-2, restored.getPositionY(), 0);
+
+        List<WriteCharacteristicCommand> restoredCommands = registration.getCommands();
+        assertEquals(2, restoredCommands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            assertTrue(commands.get(i).hasSameEffect(restoredCommands.get(i)));
+            assertEquals(SERVICE, restoredCommands.get(i).getServiceUUID());
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, restoredCommands.get(1).getBytesToUpload());
+
+        HandlerState state = loaded.getState(footprint);
+        assertNotNull(state);
+        assertEquals(BLERange.NEAR, state.getRange());
+        assertEquals(1000L, state.getLastDetectionTime());
+        assertEquals(2000L, state.getLastFiredTime());
+
+        HandlerState regionState = loaded.getState(region.getDeviceFootprint());
+        assertNotNull(regionState);
+        assertNull(regionState.getRange());
+        assertEquals(3000L, regionState.getLastDetectionTime());
+        assertNull(loaded.getState(new DeviceFootprint(BEACON_UUID, 9, 9)));
+    }
+
+    @Test
+    public void removedRegistrationDropsState() throws Exception {
+        File file = new File(folder.getRoot(), "registrations.bin");
+        RegistrationStore store = new RegistrationStore(file);
+        BeaconSettings settings = new BeaconSettings(BEACON_UUID, 1, 2, AreaSettings.ENTER);
+        store.put(settings, Collections.<WriteCharacteristicCommand>emptyList());
+        store.putState(settings.getDeviceFootprint(), new HandlerState(BLERange.FAR, 1, 0));
+        store.remove(settings.getDeviceFootprint());
+        assertNull(store.getState(settings.getDeviceFootprint()));
+        awaitSnapshot(file);
+
+        RegistrationStore loaded = new RegistrationStore(file);
+        loaded.load();
+        assertTrue(loaded.isEmpty());
+        assertNull(loaded.getState(settings.getDeviceFootprint()));
+    }
+
+    @Test
+    public void missingSnapshotLoadsEmptyStore() {
+        RegistrationStore store = new RegistrationStore(new File(folder.getRoot(), "missing.bin"));
+        store.load();
+        assertTrue(store.isEmpty());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015 Orange.
+ *
+ * This library is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU Lesser General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License, which can be found in the file 'LICENSE.txt' in
+ * this package distribution or at 'http://www.gnu.org/licenses/old-licenses/lgpl-2.1.en.html'
+ * for more details.
+ *
+ * Created by Orange Beacon on 08/6/15.
+ */
+package com.orange.beaconme_sdk.control.time;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class VirtualClockTest {
+
+    @Test
+    public void runsDueTasksInOrder() {
+        final VirtualClock clock = new VirtualClock(1000000);
+        final List<String> runs = new ArrayList<>();
+        clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.add("b@" + clock.elapsedRealtime());
+            }
+        }, 200);
+        clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.add("a@" + clock.elapsedRealtime());
+                clock.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        runs.add("c@" + clock.elapsedRealtime());
+                    }
+                }, 150);
+            }
+        }, 100);
+        ScheduledTask cancelled = clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.add("cancelled");
+            }
+        }, 50);
+        cancelled.cancel();
+
+        clock.advance(99);
+        assertEquals(0, runs.size());
+        clock.advance(200);
+        assertEquals(Arrays.asList("a@100", "b@200", "c@250"), runs);
+        assertEquals(299, clock.elapsedRealtime());
+        assertEquals(1000299, clock.currentTimeMillis());
+        assertEquals(0, clock.getPendingCount());
+    }
+
+    @Test
+    public void wallTimeAdjustmentKeepsElapsedTime() {
+        VirtualClock clock = new VirtualClock(1000000);
+        clock.advance(500);
+        clock.setCurrentTimeMillis(5000);
+        assertEquals(500, clock.elapsedRealtime());
+        assertEquals(5000, clock.currentTimeMillis());
+        clock.advance(100);
+        assertEquals(5100, clock.currentTimeMillis());
+    }
+}